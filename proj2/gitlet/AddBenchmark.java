@@ -0,0 +1,40 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static gitlet.BenchUtil.*;
+import static gitlet.Utils.*;
+
+/** Times "gitlet add ." on a fresh repository of many files, once with
+ *  serial hashing and once with the default pool of hashing threads.
+ *  Usage: java gitlet.AddBenchmark [FILES [FILE SIZE [RUNS [THREADS]]]]
+ *  with defaults of 10000 files of 1024 bytes, 3 runs each and the
+ *  number of threads gitlet would pick for this machine.
+ *  @author Adam Woods
+ */
+public class AddBenchmark {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int files = intArg(args, 0, 10000);
+        int size = intArg(args, 1, 1024);
+        int runs = intArg(args, 2, 3);
+        int parallel = intArg(args, 3, Repository.THREADS);
+
+        File dir = Files.createTempDirectory("gitlet-add-bench").toFile();
+        makeFiles(dir, files, size);
+        header("%12s %12s %12s %12s", "threads", "run", "time (s)", "files/s");
+        for (int threads : new int[] {1, parallel}) {
+            for (int run = 0; run < runs; run += 1) {
+                deleteTree(join(dir, ".gitlet"));
+                gitlet(dir, threads, "init");
+                long start = System.nanoTime();
+                gitlet(dir, threads, "add", ".");
+                double time = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%12d %12d %12.2f %12.0f\n", threads, run, time, files / time);
+            }
+        }
+        deleteTree(dir);
+    }
+}
@@ -0,0 +1,124 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** What the benchmarks share: reading their arguments, running gitlet
+ *  or a benchmark's measurements in a JVM of their own, making and
+ *  deleting scratch files, and printing the head of a result table.
+ *  @author Adam Woods
+ */
+class BenchUtil {
+
+    /** Argument with which a benchmark's main runs as a child. */
+    private static final String CHILD = "--child";
+
+    /** Returns argument number I of ARGS as an integer, or DEFAULT if
+     *  ARGS has no such argument. */
+    static int intArg(String[] args, int i, int dflt) {
+        return args.length > i ? Integer.parseInt(args[i]) : dflt;
+    }
+
+    /** Returns ARGS as integers, or DEFAULTS if there are none. */
+    static int[] sizes(String[] args, int... defaults) {
+        if (args.length == 0) {
+            return defaults;
+        }
+        int[] result = new int[args.length];
+        for (int i = 0; i < args.length; i += 1) {
+            result[i] = Integer.parseInt(args[i]);
+        }
+        return result;
+    }
+
+    /** Returns true iff ARGS are those of a child started by inChildren,
+     *  whose size is then ARGS[1]. */
+    static boolean isChild(String[] args) {
+        return args.length == 2 && args[0].equals(CHILD);
+    }
+
+    /** Returns the start of a command running a new JVM with this class
+     *  path and the system properties PROPERTIES, each KEY=VALUE. */
+    static List<String> javaCommand(String... properties) {
+        List<String> command = new ArrayList<>();
+        command.add(join(System.getProperty("java.home"), "bin", "java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        for (String property : properties) {
+            command.add("-D" + property);
+        }
+        return command;
+    }
+
+    /** Runs the main method of BENCHMARK once for each N in SIZES, as a
+     *  child with arguments "--child" and N, in a new JVM whose working
+     *  directory is a fresh temporary directory, deleted afterwards.
+     *  Gitlet finds its repository through user.dir, so each child
+     *  measures a repository of its own. */
+    static void inChildren(Class<?> benchmark, int[] sizes)
+            throws IOException, InterruptedException {
+        for (int n : sizes) {
+            File dir = Files.createTempDirectory("gitlet-bench").toFile();
+            List<String> command = javaCommand("user.dir=" + dir.getAbsolutePath());
+            command.addAll(Arrays.asList(benchmark.getName(), CHILD, Integer.toString(n)));
+            Process p = new ProcessBuilder(command).inheritIO().start();
+            if (p.waitFor() != 0) {
+                throw error("%s of size %d failed.", benchmark.getSimpleName(), n);
+            }
+            deleteTree(dir);
+        }
+    }
+
+    /** Runs gitlet with ARGS in DIR, using THREADS worker threads, and
+     *  waits for it to finish. */
+    static void gitlet(File dir, int threads, String... args)
+            throws IOException, InterruptedException {
+        List<String> command = javaCommand("gitlet.threads=" + threads);
+        command.add("gitlet.Main");
+        command.addAll(Arrays.asList(args));
+        Process p = new ProcessBuilder(command).directory(dir)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        if (p.waitFor() != 0) {
+            throw error("gitlet %s failed.", args[0]);
+        }
+    }
+
+    /** Fills DIR with N files of SIZE random bytes, 100 to a directory. */
+    static void makeFiles(File dir, int n, int size) throws IOException {
+        Random random = new Random(61);
+        byte[] contents = new byte[size];
+        for (int i = 0; i < n; i += 1) {
+            File sub = join(dir, "d" + (i / 100));
+            sub.mkdirs();
+            random.nextBytes(contents);
+            Files.write(join(sub, "f" + i).toPath(), contents);
+        }
+    }
+
+    /** Deletes F and everything under it. */
+    static void deleteTree(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                deleteTree(c);
+            }
+        }
+        f.delete();
+    }
+
+    /** Prints the column NAMES of a table, laid out by FORMAT, and a
+     *  rule under them. */
+    static void header(String format, Object... names) {
+        String line = String.format(format, names);
+        System.out.println(line);
+        System.out.println("-".repeat(line.length()));
+    }
+}
@@ -0,0 +1,436 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static gitlet.Utils.*;
+
+/** Reads and writes the contents of tracked files.
+ *  A blob is a short ASCII header, "blob <size>\0", followed by the raw
+ *  bytes of the file, and is named by the SHA-1 of those bytes.  New blobs
+ *  are stored zlib-compressed; the SHA-1 is computed over the file in the
+ *  same pass that compresses it, so adding a file reads it only once.
+ *  Contents are always streamed between the working directory and the
+ *  store, so a blob is never held on the heap as a whole.  Uncompressed
+ *  blobs, and blobs written by older versions of gitlet that hold a
+ *  serialized String, are still read.
+ *  Files of at least CHUNK_THRESHOLD bytes are stored chunked instead:
+ *  split by Chunker into content-defined chunks, each stored as a blob of
+ *  its own, so a file that grows or changes a little at a time shares
+ *  all but a few chunks with its earlier versions.  The blob of the file
+ *  is then "chunks <size> <count>\0" followed by the raw SHA-1 of each
+ *  chunk in order, but is still named by the SHA-1 of the contents.
+ *  @author Adam Woods
+ */
+class Blob {
+
+    /** Size of the buffers used to stream file contents. */
+    static final int BUFFER_SIZE = 1 << 16;
+    /** Longest header we expect in front of a blob. */
+    private static final int MAX_HEADER = 48;
+    /** Smallest file, in bytes, that write stores chunked, set with
+     *  -Dgitlet.chunked; negative (the default) stores every file whole.
+     *  Files shorter than Chunker.MAX_CHUNK are always stored whole. */
+    static final long CHUNK_THRESHOLD = Long.getLong("gitlet.chunked", -1);
+
+    /** Returns the SHA-1 of the contents of FILE, read as a stream. */
+    static String hash(File file) {
+        MessageDigest md = sha1Digest();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            Trace.opened();
+            byte[] buf = new byte[BUFFER_SIZE];
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                md.update(buf, 0, n);
+                Trace.read(n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return toHex(md.digest());
+    }
+
+    /** Stores the contents of FILE as a blob, unless an identical blob is
+     *  already stored, and returns its SHA-1.  FILE is read once: its bytes
+     *  are hashed as they are compressed into a temporary file, which is
+     *  then renamed to its final name or discarded. */
+    static String write(File file) {
+        if (CHUNK_THRESHOLD >= 0
+                && file.length() >= Math.max(CHUNK_THRESHOLD, Chunker.MAX_CHUNK)) {
+            return writeChunked(file);
+        }
+        MessageDigest md = sha1Digest();
+        Deflater deflater = new Deflater(COMPRESSION_LEVEL);
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("blob-", ".tmp", Repository.BLOBS);
+            try (InputStream in = Files.newInputStream(file.toPath());
+                 OutputStream out = new DeflaterOutputStream(
+                         new FileOutputStream(tmp), deflater, BUFFER_SIZE)) {
+                long size = file.length();
+                out.write(header(size));
+                byte[] buf = new byte[BUFFER_SIZE];
+                long copied = 0;
+                for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                    md.update(buf, 0, n);
+                    out.write(buf, 0, n);
+                    copied += n;
+                }
+                if (copied != size) {
+                    throw error("File %s changed while it was being added.",
+                            file.getName());
+                }
+            }
+            Trace.opened();
+            Trace.opened();
+            Trace.read(file.length());
+            Trace.wrote(tmp.length());
+            String sha = toHex(md.digest());
+            if (ObjectStore.contains(ObjectStore.BLOB, sha)) {
+                tmp.delete();
+            } else {
+                moveAtomic(tmp, ObjectStore.looseFile(ObjectStore.BLOB, sha));
+            }
+            return sha;
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Stores the contents of FILE as a list of chunks, storing each
+     *  chunk that is not already stored as a blob, and returns the SHA-1
+     *  of the contents.  FILE is read once, and only new chunks and the
+     *  list are written.  The chunks are written before the list, so a
+     *  stored list never names a missing chunk. */
+    private static String writeChunked(File file) {
+        MessageDigest md = sha1Digest();
+        MessageDigest chunkMd = sha1Digest();
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        long size = file.length();
+        long copied = 0;
+        int count = 0;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            Trace.opened();
+            Chunker chunker = new Chunker(in);
+            for (int n = chunker.next(); n > 0; n = chunker.next()) {
+                byte[] buf = chunker.buffer();
+                int off = chunker.offset();
+                md.update(buf, off, n);
+                chunkMd.update(buf, off, n);
+                byte[] id = chunkMd.digest();
+                String chunk = toHex(id);
+                if (!ObjectStore.contains(ObjectStore.BLOB, chunk)) {
+                    byte[] head = header(n);
+                    byte[] raw = Arrays.copyOf(head, head.length + n);
+                    System.arraycopy(buf, off, raw, head.length, n);
+                    writeAtomic(ObjectStore.looseFile(ObjectStore.BLOB, chunk), compress(raw));
+                }
+                list.write(id);
+                Trace.read(n);
+                copied += n;
+                count += 1;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (copied != size) {
+            throw error("File %s changed while it was being added.", file.getName());
+        }
+        String sha = toHex(md.digest());
+        if (!ObjectStore.contains(ObjectStore.BLOB, sha)) {
+            byte[] head = ("chunks " + size + " " + count + "\0")
+                    .getBytes(StandardCharsets.US_ASCII);
+            byte[] raw = Arrays.copyOf(head, head.length + list.size());
+            System.arraycopy(list.toByteArray(), 0, raw, head.length, list.size());
+            writeAtomic(ObjectStore.looseFile(ObjectStore.BLOB, sha), compress(raw));
+        }
+        return sha;
+    }
+
+    /** Returns a stream over the stored form of the blob SHA. */
+    private static InputStream openStored(String sha) throws IOException {
+        ByteBuffer packed = ObjectStore.readPacked(ObjectStore.BLOB, sha);
+        if (packed != null) {
+            Trace.read(packed.remaining());
+            return new ByteBufferInputStream(packed);
+        }
+        File blob = ObjectStore.looseFile(ObjectStore.BLOB, sha);
+        if (!blob.isFile()) {
+            throw error("Missing blob %s.", sha);
+        }
+        Trace.opened();
+        Trace.read(blob.length());
+        return new FileInputStream(blob);
+    }
+
+    /** Returns the length of the uncompressed stored form of the blob
+     *  SHA, header included, as its header records it: that of a chunked
+     *  blob is the length of its list of chunks.  Returns -1 for a blob
+     *  written by older versions of gitlet. */
+    static long storedSize(String sha) {
+        long[] fields = headerFields(sha);
+        if (fields == null) {
+            return -1;
+        }
+        return fields[2] < 0 ? fields[0] + fields[1] : fields[0] + fields[2] * Pack.SHA_BYTES;
+    }
+
+    /** Returns the length of the header of the blob SHA, the size it
+     *  records and, for a chunked blob, the number of chunks (-1 for any
+     *  other), or null for a blob without a header. */
+    private static long[] headerFields(String sha) {
+        try (InputStream in = openObject(openStored(sha))) {
+            byte[] head = in.readNBytes(MAX_HEADER);
+            int n = 0;
+            while (n < head.length && head[n] != 0) {
+                n += 1;
+            }
+            if (n == head.length) {
+                return null;
+            }
+            String[] words = new String(head, 0, n, StandardCharsets.US_ASCII).split(" ");
+            if (words[0].equals("blob") && words.length == 2) {
+                return new long[] {n + 1, Long.parseLong(words[1]), -1};
+            } else if (words[0].equals("chunks") && words.length == 3) {
+                return new long[] {n + 1, Long.parseLong(words[1]), Long.parseLong(words[2])};
+            }
+            return null;
+        } catch (IOException | NumberFormatException excp) {
+            return null;
+        }
+    }
+
+    /** Returns a stream over the contents of the blob SHA. */
+    static InputStream open(String sha) {
+        try {
+            InputStream in = new BufferedInputStream(openObject(openStored(sha)), BUFFER_SIZE);
+            in.mark(MAX_HEADER);
+            int first = in.read();
+            if (first == 'c') {
+                List<String> chunks = readChunks(in);
+                in.close();
+                return openChunks(chunks);
+            }
+            if (first != 'b') {
+                in.reset();
+                String contents = (String) new ObjectInputStream(in).readObject();
+                in.close();
+                return new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8));
+            }
+            for (int c = in.read(); c > 0; c = in.read()) {
+                continue;
+            }
+            return in;
+        } catch (IOException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the SHA-1s of the chunks of the blob whose stored form is
+     *  read from STORED, in order, or null if it is not chunked.  Reads
+     *  no further than the first byte of other blobs, and closes
+     *  STORED. */
+    static List<String> chunks(InputStream stored) {
+        try (InputStream in = openObject(stored)) {
+            if (in.read() != 'c') {
+                return null;
+            }
+            return readChunks(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Reads the rest of the header and the list of chunks of a chunked
+     *  blob from IN, positioned just after its first byte, and returns
+     *  the SHA-1s of the chunks. */
+    private static List<String> readChunks(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder("c");
+        for (int c = in.read(); c != 0; c = in.read()) {
+            if (c < 0 || head.length() == MAX_HEADER) {
+                throw error("Corrupt chunk list.");
+            }
+            head.append((char) c);
+        }
+        String[] words = head.toString().split(" ");
+        int count = -1;
+        if (words.length == 3 && words[0].equals("chunks")) {
+            try {
+                count = Integer.parseInt(words[2]);
+            } catch (NumberFormatException excp) {
+                count = -1;
+            }
+        }
+        byte[] ids = count < 0 ? null : in.readNBytes(count * Pack.SHA_BYTES);
+        if (ids == null || ids.length != count * Pack.SHA_BYTES) {
+            throw error("Corrupt chunk list.");
+        }
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i += 1) {
+            result.add(toHex(Arrays.copyOfRange(ids, i * Pack.SHA_BYTES,
+                    (i + 1) * Pack.SHA_BYTES)));
+        }
+        return result;
+    }
+
+    /** Returns a stream over the contents of the chunks CHUNKS, one after
+     *  the other, opening each only when the one before it is used up. */
+    private static InputStream openChunks(List<String> chunks) {
+        Iterator<String> it = chunks.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return it.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                return open(it.next());
+            }
+        });
+    }
+
+    /** Writes the contents of the blob SHA to DEST, creating or
+     *  overwriting it as needed. */
+    static void checkout(String sha, File dest) {
+        try (FileChannel out = FileChannel.open(dest.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Trace.opened();
+            if (ObjectStore.readPacked(ObjectStore.BLOB, sha) != null
+                    || !transferRaw(ObjectStore.looseFile(ObjectStore.BLOB, sha), out)) {
+                try (InputStream in = open(sha)) {
+                    OutputStream os = Channels.newOutputStream(out);
+                    byte[] buf = new byte[BUFFER_SIZE];
+                    for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                        os.write(buf, 0, n);
+                    }
+                }
+            }
+            Trace.wrote(out.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** If BLOB is an uncompressed loose blob, copies its contents to OUT
+     *  with FileChannel.transferTo and returns true; otherwise returns
+     *  false without writing anything. */
+    private static boolean transferRaw(File blob, FileChannel out) throws IOException {
+        if (!blob.isFile()) {
+            return false;
+        }
+        try (FileChannel in = FileChannel.open(blob.toPath(), StandardOpenOption.READ)) {
+            Trace.opened();
+            ByteBuffer head = ByteBuffer.allocate(MAX_HEADER);
+            in.read(head, 0);
+            head.flip();
+            int start = headerLength(head);
+            if (start < 0) {
+                return false;
+            }
+            long size = in.size();
+            Trace.read(size);
+            long pos = start;
+            while (pos < size) {
+                long n = in.transferTo(pos, size - pos, out);
+                if (n <= 0) {
+                    break;
+                }
+                pos += n;
+            }
+            return true;
+        }
+    }
+
+    /** Returns the header written in front of a blob of SIZE bytes. */
+    static byte[] header(long size) {
+        return ("blob " + size + "\0").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** Returns the length of the uncompressed blob header at the start of
+     *  BUF, or -1 if BUF does not start with one.  Does not change the
+     *  position of BUF. */
+    static int headerLength(ByteBuffer buf) {
+        int start = buf.position();
+        int end = Math.min(buf.limit(), start + MAX_HEADER);
+        if (end - start < 5 || buf.get(start) != 'b') {
+            return -1;
+        }
+        for (int i = start; i < end; i += 1) {
+            if (buf.get(i) == 0) {
+                return i - start + 1;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns a fresh SHA-1 digest. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** An InputStream over the remaining bytes of a ByteBuffer, such as
+     *  an object mapped from a pack. */
+    static class ByteBufferInputStream extends InputStream {
+        /** The bytes still to be read. */
+        private final ByteBuffer buf;
+
+        /** A stream over the remaining bytes of BUF. */
+        ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf.duplicate();
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static gitlet.BenchUtil.*;
+
+/** Times checking out a branch of many files into a working directory
+ *  that has none of them, once with a single writer thread and once with
+ *  the default pool of writer threads.
+ *  Usage: java gitlet.CheckoutBenchmark [FILES [FILE SIZE [RUNS [THREADS]]]]
+ *  with defaults of 20000 files of 1024 bytes, 3 runs each and the
+ *  number of threads gitlet would pick for this machine.
+ *  @author Adam Woods
+ */
+public class CheckoutBenchmark {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int files = intArg(args, 0, 20000);
+        int size = intArg(args, 1, 1024);
+        int runs = intArg(args, 2, 3);
+        int parallel = intArg(args, 3, Repository.THREADS);
+
+        File dir = Files.createTempDirectory("gitlet-checkout-bench").toFile();
+        gitlet(dir, parallel, "init");
+        gitlet(dir, parallel, "branch", "empty");
+        makeFiles(dir, files, size);
+        gitlet(dir, parallel, "add", ".");
+        gitlet(dir, parallel, "commit", "files");
+        header("%12s %12s %12s %12s", "threads", "run", "time (s)", "files/s");
+        for (int threads : new int[] {1, parallel}) {
+            for (int run = 0; run < runs; run += 1) {
+                gitlet(dir, threads, "checkout", "empty");
+                long start = System.nanoTime();
+                gitlet(dir, threads, "checkout", "master");
+                double time = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%12d %12d %12.2f %12.0f\n", threads, run, time, files / time);
+            }
+        }
+        deleteTree(dir);
+    }
+}
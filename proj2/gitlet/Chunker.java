@@ -0,0 +1,121 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Splits a stream into content-defined chunks.  A Gear rolling hash is
+ *  fed every byte (shifted left by one and added to a random value for
+ *  the byte), so its top bits depend only on the last 64 bytes read, and
+ *  a chunk ends wherever the top AVG_BITS of it are all zero, as long as
+ *  it is at least MIN_CHUNK bytes long; no chunk is longer than
+ *  MAX_CHUNK.  Since where a chunk ends depends only on the bytes just
+ *  before it, inserting or appending bytes changes only the chunks around
+ *  the change, and every other chunk of a new version of a file is one
+ *  already stored.
+ *  @author Adam Woods
+ */
+class Chunker {
+
+    /** Shortest chunk, except the last of a stream. */
+    static final int MIN_CHUNK = 16 << 10;
+    /** Longest chunk. */
+    static final int MAX_CHUNK = 256 << 10;
+    /** Number of top bits of the hash that must be zero to end a chunk,
+     *  so that chunks are MIN_CHUNK + 2^AVG_BITS bytes long on average. */
+    private static final int AVG_BITS = 16;
+    /** Mask of the top AVG_BITS bits of the hash. */
+    private static final long MASK = -1L << (64 - AVG_BITS);
+
+    /** The random value added to the hash for each byte.  These fix where
+     *  chunks end, so they must never change, or files stored chunked
+     *  before would share no chunks with files stored after. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long x = 0x6769746c6574L;
+        for (int i = 0; i < GEAR.length; i += 1) {
+            // SplitMix64
+            x += 0x9e3779b97f4a7c15L;
+            long z = x;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    /** The stream being split. */
+    private final InputStream in;
+    /** Bytes read from IN; those in [start, end) are not yet chunked. */
+    private final byte[] buf = new byte[2 * MAX_CHUNK];
+    /** Start of the next chunk in BUF. */
+    private int start;
+    /** Length of the chunk at START. */
+    private int length;
+    /** End of the bytes read into BUF. */
+    private int end;
+    /** True once IN is exhausted. */
+    private boolean eof;
+
+    /** A chunker splitting IN. */
+    Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    /** Returns the length of the next chunk, whose bytes are at
+     *  offset() in buffer(), or 0 at the end of the stream.  The chunk
+     *  is only valid until the next call. */
+    int next() throws IOException {
+        start += length;
+        fill();
+        return length;
+    }
+
+    /** Returns the buffer holding the current chunk. */
+    byte[] buffer() {
+        return buf;
+    }
+
+    /** Returns the offset of the current chunk in buffer(). */
+    int offset() {
+        return start;
+    }
+
+    /** Makes sure at least MAX_CHUNK bytes are buffered from START, or
+     *  all that is left of the stream, then finds the end of the chunk
+     *  starting there. */
+    private void fill() throws IOException {
+        if (end - start < MAX_CHUNK && !eof) {
+            System.arraycopy(buf, start, buf, 0, end - start);
+            end -= start;
+            start = 0;
+            while (end < buf.length) {
+                int n = in.read(buf, end, buf.length - end);
+                if (n < 0) {
+                    eof = true;
+                    break;
+                }
+                end += n;
+            }
+        }
+        int limit = Math.min(end, start + MAX_CHUNK);
+        if (limit - start <= MIN_CHUNK) {
+            length = limit - start;
+            return;
+        }
+        // Only the last 64 bytes reach the top bits, so hashing can
+        // start just before MIN_CHUNK
+        long hash = 0;
+        int i = start + MIN_CHUNK - 64;
+        for (; i < start + MIN_CHUNK; i += 1) {
+            hash = (hash << 1) + GEAR[buf[i] & 0xff];
+        }
+        for (; i < limit; i += 1) {
+            hash = (hash << 1) + GEAR[buf[i] & 0xff];
+            if ((hash & MASK) == 0) {
+                length = i + 1 - start;
+                return;
+            }
+        }
+        length = limit - start;
+    }
+}
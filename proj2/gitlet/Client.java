@@ -0,0 +1,95 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/** A thin client for Daemon: java gitlet.Client ARGS behaves exactly
+ *  like java gitlet.Main ARGS, but sends ARGS to the daemon serving the
+ *  repository in the working directory and copies back its output and
+ *  exit status.  If no daemon is running there, the command is run in
+ *  this process instead.  The client loads none of gitlet's repository
+ *  classes unless it has to fall back.
+ *  @author Adam Woods
+ */
+public class Client {
+
+    /** Frame carrying standard output. */
+    static final int OUT = 1;
+    /** Frame carrying standard error. */
+    static final int ERR = 2;
+    /** Frame carrying the exit status, which ends a reply. */
+    static final int EXIT = 0;
+
+    public static void main(String[] args) throws IOException {
+        String cwd = System.getProperty("user.dir");
+        Path socket = Path.of(cwd, ".gitlet", "daemon.sock");
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(UnixDomainSocketAddress.of(socket));
+        } catch (IOException | UnsupportedOperationException excp) {
+            Main.main(args);
+            return;
+        }
+        int status;
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel)));
+            writeString(out, cwd);
+            out.writeInt(args.length);
+            for (String arg : args) {
+                writeString(out, arg);
+            }
+            out.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel), 1 << 16));
+            byte[] buf = new byte[1 << 16];
+            while (true) {
+                int kind = in.readUnsignedByte();
+                if (kind == EXIT) {
+                    status = in.readInt();
+                    break;
+                }
+                int len = in.readInt();
+                OutputStream dest = kind == ERR ? System.err : System.out;
+                while (len > 0) {
+                    int n = in.read(buf, 0, Math.min(len, buf.length));
+                    if (n < 0) {
+                        throw new IOException("Daemon closed the connection.");
+                    }
+                    dest.write(buf, 0, n);
+                    len -= n;
+                }
+            }
+        }
+        System.out.flush();
+        System.err.flush();
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /** Reads a length and that many bytes of UTF-8 from IN. */
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Writes S to OUT as readString reads it. */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
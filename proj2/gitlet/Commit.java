@@ -1,25 +1,51 @@
 package gitlet;
 
-import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.zip.InflaterInputStream;
 import static gitlet.Utils.*;
 
 /** Represents a gitlet commit object.
- *  contains message, date, parents, and a map to all blobs tracked by the commit
+ *  contains message, date, parents, and the root Tree of all blobs tracked by the commit.
+ *  Commits written before trees existed hold the full map of tracked files instead.
+ *  A commit is stored in a compact binary form (see encode) and named by
+ *  the SHA-1 of it.  Commits written by earlier versions of gitlet are
+ *  Java-serialized, and are still read.
  *  @author Adam Woods
  */
 public class Commit implements Serializable {
+    /** Fixed so commits written by earlier versions of this class still load. */
+    private static final long serialVersionUID = 566256746778179004L;
     /** The message of this Commit. */
     private String message;
     /** Timestamp */
     private Date date;
     /** Parent of the commit */
     private LinkedList<String> parents;
+    /** Tracked files of a commit written before trees existed, otherwise null. */
     private TreeMap<String, String> map;
+    /** SHA-1 of the root tree of tracked files. */
+    private String tree;
+    /** Tracked files, flattened from the tree on first use. */
+    private transient TreeMap<String, String> files;
+    /** SHA-1 of the stored form of this commit, once known. */
+    private transient String sha;
+
+    /** First bytes of an encoded commit ("GCM"). */
+    private static final byte[] MAGIC = {'G', 'C', 'M'};
+    /** Version of the encoding written by encode. */
+    private static final int VERSION = 1;
 
 
 
@@ -28,28 +54,70 @@ public class Commit implements Serializable {
         this.date = new Date(0);
         this.parents = null;
 
-        this.map = new TreeMap<>();
+        this.tree = Tree.empty();
     }
 
-    public Commit(String message, String parent) {
+    /** A commit with MESSAGE made at TIME, whose parents are PARENTS
+     *  (null for none) and whose root tree is TREE. */
+    Commit(String message, long time, List<String> parents, String tree) {
+        this.message = message;
+        this.date = new Date(time);
+        this.parents = parents == null ? null : new LinkedList<>(parents);
+        this.tree = tree;
+    }
+
+    /** A commit in the form earlier versions wrote before trees existed:
+     *  MESSAGE made at TIME on PARENTS, holding FILES, a map from path to
+     *  blob SHA-1, in place of a tree.  Used to measure that form. */
+    static Commit legacy(String message, long time, List<String> parents,
+                         Map<String, String> files) {
+        Commit result = new Commit(message, time, parents, null);
+        result.map = new TreeMap<>(files);
+        return result;
+    }
+
+    public Commit(String message, String parent, Stage stage) {
+        this(message, parent, null, stage);
+    }
+
+    /** A commit of the files in STAGE on top of PARENT.  If MERGED is
+     *  not null, it is the commit of the branch merged in, recorded as
+     *  the second parent. */
+    public Commit(String message, String parent, String merged, Stage stage) {
         this.message = message;
         this.date = new Date();
         this.parents = new LinkedList<>();
         this.parents.add(parent);
-       ;
-        File commitsFolder = join(System.getProperty("user.dir"), ".gitlet", "commits");
-        File thisFolder = join(commitsFolder, parent.substring(0, 2), parent);
-        Commit c = Utils.readObject(thisFolder, Commit.class);
-        this.map = c.map;
-        File stage = Utils.join(System.getProperty("user.dir"), ".gitlet", "stage", "add");
-        for (File s : stage.listFiles()) {
-            this.map.put(s.getName(), readContentsAsString(s));
+        if (merged != null) {
+            this.parents.add(merged);
         }
+
+        // Only the trees on the paths of staged files are rewritten
+        Commit c = Repository.getCommit(parent);
+        TreeMap<String, String> changes = new TreeMap<>(stage.additions());
+        for (String s : stage.removals()) {
+            changes.put(s, null);
+        }
+        this.tree = Tree.update(c.getTree(), changes);
     }
 
     public String getDate() {
-        SimpleDateFormat df = new SimpleDateFormat("E MMM d hh:mm:ss y Z");
-        return df.format(date);
+        return formatDate(date.getTime());
+    }
+
+    /** Returns the timestamp of this commit in milliseconds. */
+    public long getTime() {
+        return date.getTime();
+    }
+
+    /** Formats TIME, in milliseconds, the way log prints commit dates. */
+    public static String formatDate(long time) {
+        return dateFormat().format(new Date(time));
+    }
+
+    /** Returns a new formatter for commit dates as log prints them. */
+    public static SimpleDateFormat dateFormat() {
+        return new SimpleDateFormat("E MMM d hh:mm:ss y Z");
     }
 
     public String getMessage() {
@@ -60,12 +128,146 @@ public class Commit implements Serializable {
         return parents;
     }
 
+    /** Returns every tracked file, as a map from its path to the SHA-1
+     *  of its blob. */
     public TreeMap<String, String> getMap() {
-        return map;
+        if (map != null) {
+            return map;
+        }
+        if (files == null) {
+            files = Tree.flatten(tree);
+        }
+        return files;
+    }
+
+    /** Returns the SHA-1 of the blob tracked at PATH, or null if PATH is
+     *  not tracked.  Reads only the trees along PATH. */
+    public String getBlob(String path) {
+        if (map != null) {
+            return map.get(path);
+        }
+        if (files != null) {
+            return files.get(path);
+        }
+        return Tree.lookup(tree, path);
     }
 
+    /** Returns the files that differ between PARENT (null for none) and
+     *  this commit, as a map from each path to its blob SHA-1 here, or to
+     *  null if this commit does not track it.  Compares trees with
+     *  Tree.diff when both commits have them. */
+    public TreeMap<String, String> changesFrom(Commit parent) {
+        if (map == null && (parent == null || parent.map == null)) {
+            return Tree.diff(parent == null ? null : parent.tree, tree);
+        }
+        TreeMap<String, String> before = parent == null ? new TreeMap<>() : parent.getMap();
+        TreeMap<String, String> after = getMap();
+        TreeMap<String, String> result = new TreeMap<>();
+        for (String path : before.keySet()) {
+            if (!after.containsKey(path)) {
+                result.put(path, null);
+            }
+        }
+        for (Map.Entry<String, String> e : after.entrySet()) {
+            if (!e.getValue().equals(before.get(e.getKey()))) {
+                result.put(e.getKey(), e.getValue());
+            }
+        }
+        return result;
+    }
+
+    /** Returns the SHA-1 of the root tree of this commit, or null if it
+     *  predates trees.  Unlike getTree, never stores anything. */
+    String storedTree() {
+        return map == null ? tree : null;
+    }
+
+    /** Returns the SHA-1 of the root tree of this commit, storing the
+     *  trees first if this commit predates them. */
+    public String getTree() {
+        if (tree == null) {
+            return Tree.build(map);
+        }
+        return tree;
+    }
+
+    /** Returns the SHA-1 that names this commit, computing it on first
+     *  use. */
     public String getSha() {
-        return sha1(serialize(this));
+        if (sha == null) {
+            sha = sha1(encode());
+        }
+        return sha;
+    }
+
+    /** Returns the binary form of this commit: MAGIC, the version byte,
+     *  the timestamp, the number of parents and the raw SHA-1 of each,
+     *  the raw SHA-1 of the root tree, then the length of the message and
+     *  its UTF-8 bytes. */
+    byte[] encode() {
+        if (map != null) {
+            throw error("Commits without trees cannot be re-encoded.");
+        }
+        byte[] msg = message.getBytes(StandardCharsets.UTF_8);
+        int n = parents == null ? 0 : parents.size();
+        ByteBuffer out = ByteBuffer.allocate(
+                MAGIC.length + 14 + (n + 1) * Pack.SHA_BYTES + msg.length);
+        out.put(MAGIC).put((byte) VERSION).putLong(date.getTime()).put((byte) n);
+        for (int k = 0; k < n; k += 1) {
+            out.put(fromHex(parents.get(k)));
+        }
+        out.put(fromHex(tree)).putInt(msg.length).put(msg);
+        return out.array();
+    }
+
+    /** Returns the commit whose stored form, compressed or not, is
+     *  STORED.  Java-serialized commits are read as before. */
+    static Commit decode(byte[] stored) {
+        byte[] raw = stored;
+        if (stored.length > 1 && isZlibHeader(stored[0], stored[1])) {
+            try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(stored))) {
+                raw = in.readAllBytes();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        Commit result;
+        if (raw.length > MAGIC.length && raw[0] == MAGIC[0] && raw[1] == MAGIC[1]
+                && raw[2] == MAGIC[2]) {
+            result = decodeBinary(raw);
+            Trace.decoded();
+        } else {
+            result = deserialize(raw, Commit.class);
+        }
+        result.sha = sha1(raw);
+        return result;
+    }
+
+    /** Returns the commit encoded in RAW. */
+    private static Commit decodeBinary(byte[] raw) {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(raw, MAGIC.length, raw.length - MAGIC.length);
+            int version = in.get() & 0xff;
+            if (version != VERSION) {
+                throw error("Unknown commit version %d.", version);
+            }
+            long time = in.getLong();
+            int n = in.get() & 0xff;
+            byte[] id = new byte[Pack.SHA_BYTES];
+            LinkedList<String> parents = n == 0 ? null : new LinkedList<>();
+            for (int k = 0; k < n; k += 1) {
+                in.get(id);
+                parents.add(toHex(id));
+            }
+            in.get(id);
+            String tree = toHex(id);
+            byte[] msg = new byte[in.getInt()];
+            in.get(msg);
+            return new Commit(new String(msg, StandardCharsets.UTF_8), time, parents, tree);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+                 | NegativeArraySizeException excp) {
+            throw error("Corrupt commit.");
+        }
     }
 
 }
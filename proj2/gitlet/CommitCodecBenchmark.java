@@ -0,0 +1,146 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static gitlet.BenchUtil.*;
+import static gitlet.Utils.*;
+
+/** Compares the binary commit encoding with Java serialization of the
+ *  commits earlier versions stored: encoding, hashing (getSha) and
+ *  decoding a batch of synthetic commits, in nanoseconds per commit, and
+ *  the size of each form.  The serialized commits have the old shape,
+ *  holding the map of every tracked file that a tree now replaces; the
+ *  encoded ones name a root tree.
+ *  Each measurement runs WARMUP untimed passes, so the JIT compiles both
+ *  paths, then PASSES timed ones, and reports the best, in the manner of
+ *  a JMH average-time benchmark.  Every result is folded into a checksum
+ *  that is printed, so no work can be dropped as dead.
+ *  Usage: java gitlet.CommitCodecBenchmark [COMMITS [FILES [WARMUP [PASSES]]]]
+ *  with defaults of 10000 commits of 100 files, 5 warm-up passes and 10
+ *  timed passes.
+ *  @author Adam Woods
+ */
+public class CommitCodecBenchmark {
+
+    /** Checksum of every result, printed at the end. */
+    private static long sink;
+
+    public static void main(String[] args) {
+        int n = intArg(args, 0, 10000);
+        int files = intArg(args, 1, 100);
+        int warmup = intArg(args, 2, 5);
+        int passes = intArg(args, 3, 10);
+
+        Random random = new Random(61);
+        List<Commit> legacy = new ArrayList<>();
+        List<Commit> commits = new ArrayList<>();
+        makeCommits(random, n, files, legacy, commits);
+        List<byte[]> serialized = new ArrayList<>();
+        List<byte[]> encoded = new ArrayList<>();
+        long serializedSize = 0;
+        long encodedSize = 0;
+        for (int i = 0; i < n; i += 1) {
+            serialized.add(serialize(legacy.get(i)));
+            encoded.add(commits.get(i).encode());
+            serializedSize += serialized.get(i).length;
+            encodedSize += encoded.get(i).length;
+        }
+
+        header("%-22s %16s %16s", "ns per commit", "serialization", "binary codec");
+        System.out.printf("%-22s %16.0f %16.0f\n", "encode",
+                time(warmup, passes, n, () -> {
+                    for (Commit c : legacy) {
+                        sink += serialize(c).length;
+                    }
+                }),
+                time(warmup, passes, n, () -> {
+                    for (Commit c : commits) {
+                        sink += c.encode().length;
+                    }
+                }));
+        System.out.printf("%-22s %16.0f %16.0f\n", "encode and sha-1",
+                time(warmup, passes, n, () -> {
+                    for (Commit c : legacy) {
+                        sink += sha1(serialize(c)).hashCode();
+                    }
+                }),
+                time(warmup, passes, n, () -> {
+                    for (Commit c : commits) {
+                        sink += sha1(c.encode()).hashCode();
+                    }
+                }));
+        System.out.printf("%-22s %16.0f %16.0f\n", "decode",
+                time(warmup, passes, n, () -> {
+                    for (byte[] b : serialized) {
+                        sink += deserialize(b, Commit.class).getTime();
+                    }
+                }),
+                time(warmup, passes, n, () -> {
+                    for (byte[] b : encoded) {
+                        sink += Commit.decode(b).getTime();
+                    }
+                }));
+        System.out.printf("%-22s %16d %16d\n", "bytes per commit",
+                serializedSize / n, encodedSize / n);
+        System.out.printf("\nchecksum %x\n", sink);
+    }
+
+    /** Adds to LEGACY and COMMITS N synthetic commits, drawn from RANDOM,
+     *  with one or two parents and messages of 10 to 80 characters, each
+     *  in the old form tracking FILES files and in the new form naming a
+     *  root tree.  Each commit changes one file of its predecessor. */
+    private static void makeCommits(Random random, int n, int files,
+                                    List<Commit> legacy, List<Commit> commits) {
+        String[] shas = new String[n];
+        for (int i = 0; i < n; i += 1) {
+            shas[i] = randomSha(random);
+        }
+        TreeMap<String, String> tracked = new TreeMap<>();
+        for (int f = 0; f < files; f += 1) {
+            tracked.put("d" + (f / 10) + "/f" + f + ".txt", randomSha(random));
+        }
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            List<String> parents = new ArrayList<>();
+            parents.add(shas[random.nextInt(n)]);
+            if (random.nextInt(10) == 0) {
+                parents.add(shas[random.nextInt(n)]);
+            }
+            message.setLength(0);
+            for (int k = 10 + random.nextInt(71); k > 0; k -= 1) {
+                message.append((char) ('a' + random.nextInt(26)));
+            }
+            long time = 1600000000000L + random.nextInt();
+            int f = random.nextInt(files);
+            tracked.put("d" + (f / 10) + "/f" + f + ".txt", randomSha(random));
+            legacy.add(Commit.legacy(message.toString(), time, parents, tracked));
+            commits.add(new Commit(message.toString(), time, parents, shas[random.nextInt(n)]));
+        }
+    }
+
+    /** Returns a random SHA-1 drawn from RANDOM. */
+    private static String randomSha(Random random) {
+        byte[] id = new byte[Pack.SHA_BYTES];
+        random.nextBytes(id);
+        return toHex(id);
+    }
+
+    /** Runs TASK, which handles N commits, WARMUP times untimed and then
+     *  PASSES times, and returns the best time per commit in
+     *  nanoseconds. */
+    private static double time(int warmup, int passes, int n, Runnable task) {
+        for (int i = 0; i < warmup; i += 1) {
+            task.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < passes; i += 1) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return (double) best / n;
+    }
+}
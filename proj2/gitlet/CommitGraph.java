@@ -0,0 +1,380 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.*;
+
+/** A compact, append-only summary of every commit in the repository.
+ *  The file commit-graph holds one fixed-size record per commit, in an
+ *  order where every commit comes after its parents:
+ *      SHA-1 (20 bytes), first parent, second parent (record numbers,
+ *      -1 if absent), timestamp, generation number and the offset of
+ *      the message in commit-messages.
+ *  commit-messages holds each message as a length and its UTF-8 bytes.
+ *  A commit's generation number is one more than the largest generation
+ *  of its parents, starting from 1 for the initial commit.  log,
+ *  global-log and find read commits through this file without
+ *  deserializing any Commit.  The graph is appended to on every commit,
+ *  message first, each synced as -Dgitlet.fsync says, and rebuilt from
+ *  the stored commits if it is missing or an append was torn by a crash,
+ *  which renumbers the records and so discards the MessageIndex.
+ *  @author Adam Woods
+ */
+class CommitGraph {
+
+    /** Magic number at the start of the graph file ("GCG1"). */
+    private static final int MAGIC = 0x47434731;
+    /** Size of the graph file header: magic and version. */
+    private static final int HEADER = 8;
+    /** Size of one record. */
+    private static final int RECORD = Pack.SHA_BYTES + 4 + 4 + 8 + 4 + 8;
+
+    /** The graph file. */
+    static final File GRAPH = join(Repository.GITLET_DIR, "commit-graph");
+    /** The message file. */
+    static final File MESSAGES = join(Repository.GITLET_DIR, "commit-messages");
+
+    /** The graph of this repository, once loaded. */
+    private static CommitGraph graph;
+
+    /** The graph file this graph reads. */
+    private final File graphFile;
+    /** The message file this graph reads. */
+    private final File messagesFile;
+
+    /** Mapped records, or null if they must be mapped again. */
+    private MappedByteBuffer records;
+    /** Mapped messages, or null if they must be mapped again. */
+    private MappedByteBuffer messages;
+    /** Number of records. */
+    private int size;
+    /** Length of the message file. */
+    private long messagesLength;
+    /** Record numbers of commits by SHA-1, built on first lookup. */
+    private HashMap<String, Integer> index;
+
+    /** Returns the commit graph of this repository, building it first if
+     *  it does not exist yet. */
+    static CommitGraph load() {
+        if (graph == null) {
+            if (GRAPH.isFile() && MESSAGES.isFile()) {
+                graph = new CommitGraph(Repository.GITLET_DIR);
+                if (!graph.intact()) {
+                    graph = null;
+                }
+            }
+            if (graph == null) {
+                rebuild();
+                graph = new CommitGraph(Repository.GITLET_DIR);
+            }
+        }
+        return graph;
+    }
+
+    /** Returns the commit graph of the repository whose .gitlet directory
+     *  is DIR, such as a remote, or null if it has none.  Such a graph is
+     *  never rebuilt here. */
+    static CommitGraph open(File dir) {
+        if (!join(dir, GRAPH.getName()).isFile() || !join(dir, MESSAGES.getName()).isFile()) {
+            return null;
+        }
+        return new CommitGraph(dir);
+    }
+
+    /** Drops the graph as loaded, so that it is read again on next use. */
+    static void forget() {
+        graph = null;
+    }
+
+    /** Returns the commit graph of this repository, rebuilding it first
+     *  if it does not contain commit SHA. */
+    static CommitGraph loadWith(String sha) {
+        if (load().find(sha) < 0) {
+            rebuild();
+        }
+        return load();
+    }
+
+    /** Reads the graph files of the repository whose .gitlet directory
+     *  is DIR. */
+    private CommitGraph(File dir) {
+        graphFile = join(dir, GRAPH.getName());
+        messagesFile = join(dir, MESSAGES.getName());
+        size = (int) ((graphFile.length() - HEADER) / RECORD);
+        messagesLength = messagesFile.length();
+    }
+
+    /** Returns true iff the graph file holds its header and whole records
+     *  only, and the message of its last record lies wholly within the
+     *  message file, as they do unless a crash cut an append short. */
+    private boolean intact() {
+        long length = graphFile.length();
+        if (length < HEADER || (length - HEADER) % RECORD != 0
+                || records().getInt(0) != MAGIC) {
+            return false;
+        }
+        if (size == 0) {
+            return true;
+        }
+        long off = records().getLong(HEADER + (size - 1) * RECORD + Pack.SHA_BYTES + 20);
+        return off + 4 <= messagesLength
+            && off + 4 + messages().getInt((int) off) <= messagesLength;
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        return size;
+    }
+
+    /** Returns the record number of commit SHA, or -1 if it is not in
+     *  the graph. */
+    int find(String sha) {
+        if (index == null) {
+            index = new HashMap<>();
+            for (int i = 0; i < size; i += 1) {
+                index.put(sha(i), i);
+            }
+        }
+        Integer i = index.get(sha);
+        return i == null ? -1 : i;
+    }
+
+    /** Returns the SHA-1 of commit I. */
+    String sha(int i) {
+        byte[] sha = new byte[Pack.SHA_BYTES];
+        records().get(HEADER + i * RECORD, sha);
+        return toHex(sha);
+    }
+
+    /** Returns the record number of parent K (0 or 1) of commit I, or -1
+     *  if it has no such parent. */
+    int parent(int i, int k) {
+        return records().getInt(HEADER + i * RECORD + Pack.SHA_BYTES + 4 * k);
+    }
+
+    /** Returns the number of parents of commit I. */
+    int parentCount(int i) {
+        return parent(i, 0) < 0 ? 0 : parent(i, 1) < 0 ? 1 : 2;
+    }
+
+    /** Returns the timestamp of commit I in milliseconds. */
+    long time(int i) {
+        return records().getLong(HEADER + i * RECORD + Pack.SHA_BYTES + 8);
+    }
+
+    /** Returns the generation number of commit I. */
+    int generation(int i) {
+        return records().getInt(HEADER + i * RECORD + Pack.SHA_BYTES + 16);
+    }
+
+    /** Returns the message of commit I. */
+    String message(int i) {
+        long off = records().getLong(HEADER + i * RECORD + Pack.SHA_BYTES + 20);
+        ByteBuffer buf = messages();
+        int len = buf.getInt((int) off);
+        byte[] bytes = new byte[len];
+        buf.get((int) off + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the record number of a best common ancestor of commits A
+     *  and B: one that is an ancestor of both (or either of them) with no
+     *  other common ancestor above it.  Returns -1 if they share no
+     *  history.  Commits are visited in decreasing generation order, so
+     *  every child of a commit is visited before the commit itself and
+     *  the first commit reached from both sides is the answer; commits
+     *  older than it are never read. */
+    int mergeBase(int a, int b) {
+        HashMap<Integer, Integer> reachedFrom = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) -> {
+            int cmp = Integer.compare(generation(y), generation(x));
+            return cmp != 0 ? cmp : Integer.compare(y, x);
+        });
+        reachedFrom.put(a, 1);
+        reachedFrom.merge(b, 2, (x, y) -> x | y);
+        queue.add(a);
+        if (a != b) {
+            queue.add(b);
+        }
+        while (!queue.isEmpty()) {
+            int i = queue.poll();
+            int flags = reachedFrom.get(i);
+            if (flags == 3) {
+                return i;
+            }
+            for (int k = 0; k < parentCount(i); k += 1) {
+                int p = parent(i, k);
+                Integer old = reachedFrom.get(p);
+                if (old == null) {
+                    reachedFrom.put(p, flags);
+                    queue.add(p);
+                } else if ((old | flags) != old) {
+                    reachedFrom.put(p, old | flags);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** Adds commit C, named SHA, to the graph unless it is already there.
+     *  The parents of C must already be in the graph. */
+    void append(String sha, Commit c) {
+        if (find(sha) >= 0) {
+            return;
+        }
+        int[] parents = {-1, -1};
+        int gen = 1;
+        List<String> ps = c.getParents();
+        for (int k = 0; ps != null && k < ps.size() && k < 2; k += 1) {
+            parents[k] = find(ps.get(k));
+            if (parents[k] < 0) {
+                throw error("Commit graph is missing parent %s.", ps.get(k));
+            }
+            gen = Math.max(gen, generation(parents[k]) + 1);
+        }
+        byte[] msg = c.getMessage().getBytes(StandardCharsets.UTF_8);
+        try (FileOutputStream mf = new FileOutputStream(messagesFile, true);
+             FileOutputStream gf = new FileOutputStream(graphFile, true)) {
+            // The message is on disk before the record pointing at it
+            DataOutputStream m = new DataOutputStream(new BufferedOutputStream(mf));
+            m.writeInt(msg.length);
+            m.write(msg);
+            m.flush();
+            syncAppend(mf);
+            DataOutputStream g = new DataOutputStream(new BufferedOutputStream(gf));
+            writeRecord(g, sha, parents, c.getTime(), gen, messagesLength);
+            g.flush();
+            syncAppend(gf);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        messagesLength += 4 + msg.length;
+        index.put(sha, size);
+        size += 1;
+        records = null;
+        messages = null;
+    }
+
+    /** Rewrites the graph from the commits in the object store. */
+    static void rebuild() {
+        HashMap<String, Commit> commits = new HashMap<>();
+        for (String sha : ObjectStore.commitIds()) {
+            commits.put(sha, Repository.getCommit(sha));
+        }
+        HashMap<String, Integer> numbers = new HashMap<>();
+        HashMap<String, Integer> gens = new HashMap<>();
+        File graphTmp = join(Repository.GITLET_DIR, "commit-graph.tmp");
+        File messagesTmp = join(Repository.GITLET_DIR, "commit-messages.tmp");
+        try (DataOutputStream g = new DataOutputStream(new BufferedOutputStream(
+                     new FileOutputStream(graphTmp)));
+             DataOutputStream m = new DataOutputStream(new BufferedOutputStream(
+                     new FileOutputStream(messagesTmp)))) {
+            g.writeInt(MAGIC);
+            g.writeInt(1);
+            long offset = 0;
+            for (String start : commits.keySet()) {
+                ArrayDeque<String> stack = new ArrayDeque<>();
+                stack.push(start);
+                while (!stack.isEmpty()) {
+                    String sha = stack.peek();
+                    if (numbers.containsKey(sha)) {
+                        stack.pop();
+                        continue;
+                    }
+                    Commit c = commits.get(sha);
+                    List<String> ps = c.getParents();
+                    boolean ready = true;
+                    for (int k = 0; ps != null && k < ps.size(); k += 1) {
+                        if (!numbers.containsKey(ps.get(k)) && commits.containsKey(ps.get(k))) {
+                            stack.push(ps.get(k));
+                            ready = false;
+                        }
+                    }
+                    if (!ready) {
+                        continue;
+                    }
+                    stack.pop();
+                    int[] parents = {-1, -1};
+                    int gen = 1;
+                    for (int k = 0; ps != null && k < ps.size() && k < 2; k += 1) {
+                        Integer p = numbers.get(ps.get(k));
+                        if (p != null) {
+                            parents[k] = p;
+                            gen = Math.max(gen, gens.get(ps.get(k)) + 1);
+                        }
+                    }
+                    byte[] msg = c.getMessage().getBytes(StandardCharsets.UTF_8);
+                    m.writeInt(msg.length);
+                    m.write(msg);
+                    writeRecord(g, sha, parents, c.getTime(), gen, offset);
+                    offset += 4 + msg.length;
+                    numbers.put(sha, numbers.size());
+                    gens.put(sha, gen);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        // With no graph file, a crash between the two renames leaves
+        // nothing but another rebuild to do
+        GRAPH.delete();
+        moveAtomic(messagesTmp, MESSAGES);
+        moveAtomic(graphTmp, GRAPH);
+        syncAll();
+        graph = null;
+        MessageIndex.discard(Repository.GITLET_DIR);
+    }
+
+    /** Writes one record to OUT. */
+    private static void writeRecord(DataOutputStream out, String sha, int[] parents,
+                                    long time, int gen, long msgOffset) throws IOException {
+        out.write(fromHex(sha));
+        out.writeInt(parents[0]);
+        out.writeInt(parents[1]);
+        out.writeLong(time);
+        out.writeInt(gen);
+        out.writeLong(msgOffset);
+    }
+
+    /** Returns the mapped graph file. */
+    private MappedByteBuffer records() {
+        if (records == null) {
+            records = map(graphFile);
+            if (records.getInt(0) != MAGIC) {
+                throw error("Corrupt commit graph.");
+            }
+        }
+        return records;
+    }
+
+    /** Returns the mapped message file. */
+    private MappedByteBuffer messages() {
+        if (messages == null) {
+            messages = map(messagesFile);
+        }
+        return messages;
+    }
+
+    /** Maps FILE read-only into memory. */
+    private static MappedByteBuffer map(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static gitlet.Utils.*;
+
+/** A long-running gitlet process that runs commands sent to it by Client
+ *  over the Unix domain socket .gitlet/daemon.sock, so that scripts
+ *  running many commands pay for JVM start-up once and keep the object
+ *  cache, the mapped packs, the commit graph and the stat index warm
+ *  between commands.  Started with "java gitlet.Main daemon" in the
+ *  repository, it runs one command at a time until it is killed.
+ *  A request is the client's working directory and its arguments, each
+ *  as a length and UTF-8 bytes after the number of arguments.  The reply
+ *  is a series of frames, each a stream byte (Client.OUT or Client.ERR),
+ *  a length and that many bytes of output, ended by a Client.EXIT byte
+ *  and the exit status.
+ *  Commands run through Main.main exactly as they would in a process of
+ *  their own, so their output is the same byte for byte.
+ *  The daemon expects to own the repository: if the staging file, the
+ *  stat index, the commit graph or the packs change behind its back, or
+ *  a command fails part way, it drops what it holds of them and reads
+ *  them again.
+ *  With -Dgitlet.watch=true the daemon also runs a Watcher, whose journal
+ *  of changes to the working directory spares status, add and checkout
+ *  from walking and statting every working file.
+ *  @author Adam Woods
+ */
+class Daemon {
+
+    /** The socket clients connect to. */
+    static final File SOCKET = join(Repository.GITLET_DIR, "daemon.sock");
+
+    /** Stamps of the repository files the daemon caches, as they were
+     *  when the last command finished. */
+    private static long[] stamps;
+
+    /** True once this process is serving commands. */
+    private static boolean serving;
+
+    /** Serves commands on SOCKET until the process is killed. */
+    static void serve() {
+        if (serving) {
+            System.out.println("The daemon is already running.");
+            return;
+        }
+        if (answering()) {
+            System.out.println("The daemon is already running.");
+            return;
+        }
+        serving = true;
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            // Left behind by a daemon that died
+            Files.deleteIfExists(SOCKET.toPath());
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            SOCKET.deleteOnExit();
+            stamps = stamps();
+            if (Boolean.getBoolean("gitlet.watch")) {
+                Watcher.start();
+            }
+            while (true) {
+                try (SocketChannel client = server.accept()) {
+                    handle(client);
+                } catch (IOException excp) {
+                    // The client went away; wait for the next one
+                    continue;
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Could not start the daemon: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns true iff a daemon accepts connections on SOCKET, and false
+     *  if there is no socket or connecting to it is refused, as it is when
+     *  the daemon that made it has died. */
+    private static boolean answering() {
+        if (!SOCKET.exists()) {
+            return false;
+        }
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            return true;
+        } catch (ConnectException excp) {
+            return false;
+        } catch (IOException excp) {
+            throw error("Could not start the daemon: %s", excp.getMessage());
+        }
+    }
+
+    /** Reads one command from CLIENT, runs it and sends back its output
+     *  and exit status. */
+    private static void handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(client)));
+        DataOutputStream out = new DataOutputStream(Channels.newOutputStream(client));
+        String cwd = Client.readString(in);
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = Client.readString(in);
+        }
+
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        FrameStream outFrames = new FrameStream(out, Client.OUT);
+        FrameStream errFrames = new FrameStream(out, Client.ERR);
+        PrintStream cmdOut = new PrintStream(outFrames);
+        PrintStream cmdErr = new PrintStream(errFrames, true);
+        int status = 0;
+        System.setOut(cmdOut);
+        System.setErr(cmdErr);
+        try {
+            if (!new File(cwd).getCanonicalFile().equals(Repository.CWD.getCanonicalFile())) {
+                cmdErr.println("The daemon serves " + Repository.CWD + " only.");
+                status = 1;
+            } else {
+                if (!Arrays.equals(stamps(), stamps)) {
+                    forget();
+                }
+                Watcher.sync();
+                Main.main(args);
+            }
+        } catch (Throwable excp) {
+            // Reported as the JVM reports an uncaught exception
+            cmdErr.print("Exception in thread \"main\" ");
+            excp.printStackTrace(cmdErr);
+            forget();
+            status = 1;
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        cmdOut.flush();
+        cmdErr.flush();
+        stamps = stamps();
+        out.writeByte(Client.EXIT);
+        out.writeInt(status);
+        out.flush();
+    }
+
+    /** Drops everything the daemon holds of files that may change, so
+     *  that the next command reads them again.  Objects are never changed
+     *  once stored, so the object cache is kept. */
+    private static void forget() {
+        Stage.forget();
+        StatIndex.forget();
+        CommitGraph.forget();
+        ObjectStore.packAdded();
+    }
+
+    /** Returns the sizes and modification times of the files whose
+     *  contents the daemon caches. */
+    private static long[] stamps() {
+        File[] files = {Stage.STAGING, StatIndex.INDEX, CommitGraph.GRAPH, ObjectStore.PACKS};
+        long[] result = new long[files.length * 2];
+        for (int i = 0; i < files.length; i += 1) {
+            result[2 * i] = files[i].length();
+            result[2 * i + 1] = files[i].lastModified();
+        }
+        return result;
+    }
+
+    /** An OutputStream that sends what is written to it as frames of one
+     *  kind, buffering up to a frame's worth of bytes. */
+    private static class FrameStream extends OutputStream {
+        /** Where frames are written. */
+        private final DataOutputStream out;
+        /** The stream byte of each frame. */
+        private final int kind;
+        /** Bytes not yet sent. */
+        private final byte[] buf = new byte[1 << 16];
+        /** Number of bytes in BUF. */
+        private int count;
+
+        /** A stream writing frames of KIND to OUT. */
+        FrameStream(DataOutputStream out, int kind) {
+            this.out = out;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buf.length) {
+                flush();
+            }
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buf.length) {
+                    flush();
+                }
+                int n = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) {
+                synchronized (out) {
+                    out.writeByte(kind);
+                    out.writeInt(count);
+                    out.write(buf, 0, count);
+                    out.flush();
+                }
+                count = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+
+import static gitlet.Utils.*;
+
+/** Encodes one byte string as a delta against another, and applies such
+ *  deltas.  The format follows git's: the lengths of the base and of the
+ *  result as little-endian base-128 numbers, then a list of instructions.
+ *  An instruction byte with the high bit set copies a range of the base:
+ *  its low four bits say which bytes of the offset follow, and the next
+ *  three which bytes of the length (a length of 0 means 0x10000).  Any
+ *  other non-zero byte N inserts the N bytes that follow it.
+ *  To encode, the base is indexed by the hash of every BLOCK-byte block
+ *  at a multiple of BLOCK, and a rolling hash of the target is looked up
+ *  at each position; a match is extended in both directions and becomes
+ *  a copy, and the bytes between matches become inserts.
+ *  @author Adam Woods
+ */
+class Delta {
+
+    /** Length of the blocks of the base that are indexed. */
+    private static final int BLOCK = 16;
+    /** Multiplier of the rolling hash. */
+    private static final long PRIME = 0x100000001b3L;
+    /** PRIME to the power BLOCK - 1, to remove the byte leaving the window. */
+    private static final long OUT;
+    /** Longest copy a single instruction can express. */
+    private static final int MAX_COPY = 0xffffff;
+    /** Longest insert a single instruction can express. */
+    private static final int MAX_INSERT = 0x7f;
+
+    static {
+        long p = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            p *= PRIME;
+        }
+        OUT = p;
+    }
+
+    /** Returns a delta that turns BASE into TARGET. */
+    static byte[] encode(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(target.length / 8 + 16);
+        writeLength(out, base.length);
+        writeLength(out, target.length);
+
+        int blocks = base.length / BLOCK;
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(blocks * 2, 1));
+        int[] table = new int[1 << bits];
+        for (int b = blocks - 1; b >= 0; b -= 1) {
+            // Filled backwards so that the first of equal blocks wins
+            table[slot(hash(base, b * BLOCK), bits)] = b * BLOCK + 1;
+        }
+
+        int pending = 0;
+        int i = 0;
+        long h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            int candidate = blocks == 0 ? -1 : table[slot(h, bits)] - 1;
+            if (candidate >= 0 && equal(base, candidate, target, i, BLOCK)) {
+                int start = i;
+                int from = candidate;
+                while (start > pending && from > 0 && base[from - 1] == target[start - 1]) {
+                    start -= 1;
+                    from -= 1;
+                }
+                int end = i + BLOCK;
+                int to = candidate + BLOCK;
+                while (end < target.length && to < base.length && base[to] == target[end]) {
+                    end += 1;
+                    to += 1;
+                }
+                insert(out, target, pending, start);
+                copy(out, from, end - start);
+                pending = end;
+                i = end;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+                continue;
+            }
+            if (i + BLOCK < target.length) {
+                h = (h - (target[i] & 0xff) * OUT) * PRIME + (target[i + BLOCK] & 0xff);
+            }
+            i += 1;
+        }
+        insert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        long baseLength = readLength(delta, pos);
+        long length = readLength(delta, pos);
+        if (baseLength != base.length || length > Integer.MAX_VALUE) {
+            throw error("Corrupt delta.");
+        }
+        byte[] result = new byte[(int) length];
+        int n = 0;
+        int p = pos[0];
+        try {
+            while (p < delta.length) {
+                int op = delta[p++] & 0xff;
+                if ((op & 0x80) != 0) {
+                    long offset = 0;
+                    for (int k = 0; k < 4; k += 1) {
+                        if ((op & (1 << k)) != 0) {
+                            offset |= (long) (delta[p++] & 0xff) << (8 * k);
+                        }
+                    }
+                    int size = 0;
+                    for (int k = 0; k < 3; k += 1) {
+                        if ((op & (0x10 << k)) != 0) {
+                            size |= (delta[p++] & 0xff) << (8 * k);
+                        }
+                    }
+                    if (size == 0) {
+                        size = 0x10000;
+                    }
+                    if (offset + size > base.length) {
+                        throw error("Corrupt delta.");
+                    }
+                    System.arraycopy(base, (int) offset, result, n, size);
+                    n += size;
+                } else if (op != 0) {
+                    System.arraycopy(delta, p, result, n, op);
+                    p += op;
+                    n += op;
+                } else {
+                    throw error("Corrupt delta.");
+                }
+            }
+        } catch (IndexOutOfBoundsException excp) {
+            throw error("Corrupt delta.");
+        }
+        if (n != result.length) {
+            throw error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Writes the instructions inserting BYTES[FROM .. TO) to OUT. */
+    private static void insert(ByteArrayOutputStream out, byte[] bytes, int from, int to) {
+        while (from < to) {
+            int n = Math.min(MAX_INSERT, to - from);
+            out.write(n);
+            out.write(bytes, from, n);
+            from += n;
+        }
+    }
+
+    /** Writes the instructions copying LENGTH bytes of the base, starting
+     *  at OFFSET, to OUT. */
+    private static void copy(ByteArrayOutputStream out, int offset, int length) {
+        while (length > 0) {
+            int size = Math.min(MAX_COPY, length);
+            byte[] args = new byte[7];
+            int n = 0;
+            int op = 0x80;
+            for (int k = 0; k < 4; k += 1) {
+                int b = (offset >>> (8 * k)) & 0xff;
+                if (b != 0) {
+                    op |= 1 << k;
+                    args[n++] = (byte) b;
+                }
+            }
+            for (int k = 0; k < 3; k += 1) {
+                int b = (size >>> (8 * k)) & 0xff;
+                if (b != 0) {
+                    op |= 0x10 << k;
+                    args[n++] = (byte) b;
+                }
+            }
+            out.write(op);
+            out.write(args, 0, n);
+            offset += size;
+            length -= size;
+        }
+    }
+
+    /** Writes LENGTH to OUT as a little-endian base-128 number. */
+    private static void writeLength(ByteArrayOutputStream out, long length) {
+        while (length >= 0x80) {
+            out.write((int) (length & 0x7f) | 0x80);
+            length >>>= 7;
+        }
+        out.write((int) length);
+    }
+
+    /** Reads a number written by writeLength from DELTA at POS[0],
+     *  advancing POS[0] past it. */
+    private static long readLength(byte[] delta, int[] pos) {
+        long result = 0;
+        int shift = 0;
+        while (true) {
+            if (pos[0] >= delta.length || shift > 56) {
+                throw error("Corrupt delta.");
+            }
+            int b = delta[pos[0]++] & 0xff;
+            result |= (long) (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return result;
+            }
+            shift += 7;
+        }
+    }
+
+    /** Returns the hash of the BLOCK bytes of BYTES starting at FROM. */
+    private static long hash(byte[] bytes, int from) {
+        long h = 0;
+        for (int k = 0; k < BLOCK; k += 1) {
+            h = h * PRIME + (bytes[from + k] & 0xff);
+        }
+        return h;
+    }
+
+    /** Returns the slot of hash H in a table of 2^BITS slots. */
+    private static int slot(long h, int bits) {
+        return (int) ((h * 0x9e3779b97f4a7c15L) >>> (64 - bits));
+    }
+
+    /** Returns true iff the LENGTH bytes of A at I equal those of B at J. */
+    private static boolean equal(byte[] a, int i, byte[] b, int j, int length) {
+        for (int k = 0; k < length; k += 1) {
+            if (a[i + k] != b[j + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,639 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** Line-by-line differences between two versions of a file, printed as
+ *  a unified diff.
+ *  Lines are compared by 64-bit hashes.  The versions are read as
+ *  streams, several times: once in step to skip their common prefix
+ *  while hashing what follows it, once to compare byte for byte the
+ *  lines the edit script pairs up by hash, turning any pair that differs
+ *  into a deletion and an insertion, so that a hash collision cannot
+ *  hide a change, and once more to print the hunks, so neither is ever
+ *  held in memory.  The edit script is found with
+ *  Myers' O(ND) algorithm in its linear-space form, splitting at middle
+ *  snakes, with the diagonal arrays grown to the number of edits rather
+ *  than sized to the input.  When a region would cost too much for
+ *  Myers (many edits in a long region), the lines that occur exactly
+ *  once on each side are matched up as in patience diff, and the gaps
+ *  between them are diffed in turn.
+ *  Memory is therefore 8 bytes per line after the common prefix, plus
+ *  space proportional to the edit script.
+ *  @author Adam Woods
+ */
+class Diff {
+
+    /** A version of a file that can be read from the start any number
+     *  of times. */
+    interface Source {
+        /** Returns a new stream over the contents. */
+        InputStream open() throws IOException;
+    }
+
+    /** A source with no contents. */
+    static final Source EMPTY = () -> new ByteArrayInputStream(new byte[0]);
+
+    /** Script operation: lines present in both versions. */
+    private static final int EQUAL = 0;
+    /** Script operation: lines only in the old version. */
+    private static final int DELETE = 1;
+    /** Script operation: lines only in the new version. */
+    private static final int INSERT = 2;
+
+    /** Lines of context around each change. */
+    private static final int CONTEXT = 3;
+    /** Bytes examined for a NUL when deciding a file is binary. */
+    private static final int BINARY_PROBE = 8000;
+    /** Roughly how many steps Myers may take on one region before the
+     *  region is handed to the patience fallback. */
+    private static final long MYERS_BUDGET = 50_000_000L;
+    /** Number of edits Myers may always try, however long the region. */
+    private static final int MIN_EDITS = 256;
+
+    /** Hashes of the old lines after the common prefix. */
+    private final Hashes a = new Hashes();
+    /** Hashes of the new lines after the common prefix. */
+    private final Hashes b = new Hashes();
+    /** The edit script, as runs of one operation. */
+    private Script script = new Script();
+
+    /** Prints the differences between OLD and NEW, naming the file PATH,
+     *  to OUT.  Either may be EMPTY for a file that is added or deleted.
+     *  Prints nothing if they have the same contents. */
+    static void print(String path, Source old, Source now, boolean added, boolean deleted,
+                      OutputStream out) throws IOException {
+        Diff d = new Diff();
+        if (isBinary(old) || isBinary(now)) {
+            write(out, "diff --git a/" + path + " b/" + path + "\n");
+            write(out, "Binary files " + (added ? "/dev/null" : "a/" + path) + " and "
+                    + (deleted ? "/dev/null" : "b/" + path) + " differ\n");
+            return;
+        }
+        d.compute(old, now);
+        d.verify(old, now);
+        if (d.script.size == 1 && d.script.ops[0] == EQUAL || d.script.size == 0) {
+            return;
+        }
+        write(out, "diff --git a/" + path + " b/" + path + "\n");
+        if (added) {
+            write(out, "new file\n");
+        } else if (deleted) {
+            write(out, "deleted file\n");
+        }
+        write(out, "--- " + (added ? "/dev/null" : "a/" + path) + "\n");
+        write(out, "+++ " + (deleted ? "/dev/null" : "b/" + path) + "\n");
+        d.printHunks(old, now, out);
+    }
+
+    /** Finds the edit script turning OLD into NOW. */
+    private void compute(Source old, Source now) throws IOException {
+        int prefix = 0;
+        try (LineReader ra = new LineReader(old.open());
+             LineReader rb = new LineReader(now.open())) {
+            boolean moreA = ra.next();
+            boolean moreB = rb.next();
+            while (moreA && moreB && ra.sameLine(rb)) {
+                prefix += 1;
+                moreA = ra.next();
+                moreB = rb.next();
+            }
+            for (; moreA; moreA = ra.next()) {
+                a.add(ra.hash());
+            }
+            for (; moreB; moreB = rb.next()) {
+                b.add(rb.hash());
+            }
+        }
+        script.add(EQUAL, prefix);
+        diff(0, a.size(), 0, b.size());
+    }
+
+    /** Reads OLD and NOW once more, and replaces each pair of lines the
+     *  script holds equal whose bytes differ with a deletion and an
+     *  insertion.  Does nothing if the common prefix covered both, since
+     *  it was compared byte for byte. */
+    private void verify(Source old, Source now) throws IOException {
+        if (a.size() == 0 && b.size() == 0) {
+            return;
+        }
+        Script checked = new Script();
+        try (LineReader ra = new LineReader(old.open());
+             LineReader rb = new LineReader(now.open())) {
+            for (int r = 0; r < script.size; r += 1) {
+                int op = script.ops[r];
+                int n = script.lens[r];
+                if (op != EQUAL) {
+                    for (int c = 0; c < n; c += 1) {
+                        (op == DELETE ? ra : rb).next();
+                    }
+                    checked.add(op, n);
+                    continue;
+                }
+                int same = 0;
+                for (int c = 0; c < n; c += 1) {
+                    ra.next();
+                    rb.next();
+                    if (ra.sameLine(rb)) {
+                        same += 1;
+                    } else {
+                        checked.add(EQUAL, same);
+                        checked.add(DELETE, 1);
+                        checked.add(INSERT, 1);
+                        same = 0;
+                    }
+                }
+                checked.add(EQUAL, same);
+            }
+        }
+        script = checked;
+    }
+
+    /** Adds the edits turning old lines [ALO, AHI) into new lines
+     *  [BLO, BHI) to the script. */
+    private void diff(int aLo, int aHi, int bLo, int bHi) {
+        int pre = 0;
+        while (aLo + pre < aHi && bLo + pre < bHi && a.get(aLo + pre) == b.get(bLo + pre)) {
+            pre += 1;
+        }
+        int suf = 0;
+        while (aHi - suf > aLo + pre && bHi - suf > bLo + pre
+                && a.get(aHi - suf - 1) == b.get(bHi - suf - 1)) {
+            suf += 1;
+        }
+        script.add(EQUAL, pre);
+        aLo += pre;
+        bLo += pre;
+        aHi -= suf;
+        bHi -= suf;
+        if (aLo == aHi) {
+            script.add(INSERT, bHi - bLo);
+        } else if (bLo == bHi) {
+            script.add(DELETE, aHi - aLo);
+        } else {
+            int[] split = bisect(aLo, aHi, bLo, bHi);
+            if (split != null) {
+                diff(aLo, split[0], bLo, split[1]);
+                diff(split[0], aHi, split[1], bHi);
+            } else {
+                patience(aLo, aHi, bLo, bHi);
+            }
+        }
+        script.add(EQUAL, suf);
+    }
+
+    /** Returns the point {x, y} where a shortest edit script of old lines
+     *  [ALO, AHI) into new lines [BLO, BHI) crosses its middle, found by
+     *  running Myers' search forward from the start and backward from
+     *  the end until the two overlap.  Returns null if that would take
+     *  more edits than the budget allows for a region this long.  The
+     *  regions must be non-empty and differ in their first and last
+     *  lines. */
+    private int[] bisect(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean front = (delta & 1) != 0;
+        int maxD = (n + m + 1) / 2;
+        long limit = Math.max(MIN_EDITS, MYERS_BUDGET / (n + m));
+        Diagonals v1 = new Diagonals();
+        Diagonals v2 = new Diagonals();
+        v1.set(1, 0);
+        v2.set(1, 0);
+        int k1start = 0;
+        int k1end = 0;
+        int k2start = 0;
+        int k2end = 0;
+        for (int d = 0; d < maxD && d <= limit; d += 1) {
+            v1.reserve(d + 1);
+            v2.reserve(d + 1);
+            for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+                int x1;
+                if (k1 == -d || (k1 != d && v1.get(k1 - 1) < v1.get(k1 + 1))) {
+                    x1 = v1.get(k1 + 1);
+                } else {
+                    x1 = v1.get(k1 - 1) + 1;
+                }
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && a.get(aLo + x1) == b.get(bLo + y1)) {
+                    x1 += 1;
+                    y1 += 1;
+                }
+                v1.set(k1, x1);
+                if (x1 > n) {
+                    k1end += 2;
+                } else if (y1 > m) {
+                    k1start += 2;
+                } else if (front) {
+                    int x2 = v2.get(delta - k1);
+                    if (x2 != -1 && x1 >= n - x2) {
+                        return new int[] {aLo + x1, bLo + y1};
+                    }
+                }
+            }
+            for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+                int x2;
+                if (k2 == -d || (k2 != d && v2.get(k2 - 1) < v2.get(k2 + 1))) {
+                    x2 = v2.get(k2 + 1);
+                } else {
+                    x2 = v2.get(k2 - 1) + 1;
+                }
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m
+                        && a.get(aHi - x2 - 1) == b.get(bHi - y2 - 1)) {
+                    x2 += 1;
+                    y2 += 1;
+                }
+                v2.set(k2, x2);
+                if (x2 > n) {
+                    k2end += 2;
+                } else if (y2 > m) {
+                    k2start += 2;
+                } else if (!front) {
+                    int k1 = delta - k2;
+                    int x1 = v1.get(k1);
+                    if (x1 != -1 && x1 >= n - x2) {
+                        return new int[] {aLo + x1, bLo + x1 - k1};
+                    }
+                }
+            }
+        }
+        if (limit < maxD) {
+            return null;
+        }
+        // No common lines at all
+        return new int[] {aHi, bLo};
+    }
+
+    /** Adds edits turning old lines [ALO, AHI) into new lines [BLO, BHI)
+     *  to the script, anchored on the longest run, in order, of lines
+     *  that occur exactly once in each. */
+    private void patience(int aLo, int aHi, int bLo, int bHi) {
+        // For each hash: count and last position in old, then in new
+        HashMap<Long, int[]> counts = new HashMap<>();
+        for (int i = aLo; i < aHi; i += 1) {
+            int[] c = counts.computeIfAbsent(a.get(i), h -> new int[4]);
+            c[0] += 1;
+            c[1] = i;
+        }
+        for (int j = bLo; j < bHi; j += 1) {
+            int[] c = counts.get(b.get(j));
+            if (c != null) {
+                c[2] += 1;
+                c[3] = j;
+            }
+        }
+        List<int[]> unique = new ArrayList<>();
+        for (int i = aLo; i < aHi; i += 1) {
+            int[] c = counts.get(a.get(i));
+            if (c[0] == 1 && c[2] == 1) {
+                unique.add(new int[] {i, c[3]});
+            }
+        }
+        counts = null;
+        List<int[]> anchors = increasingRun(unique);
+        if (anchors.isEmpty()) {
+            script.add(DELETE, aHi - aLo);
+            script.add(INSERT, bHi - bLo);
+            return;
+        }
+        int i = aLo;
+        int j = bLo;
+        for (int[] anchor : anchors) {
+            diff(i, anchor[0], j, anchor[1]);
+            script.add(EQUAL, 1);
+            i = anchor[0] + 1;
+            j = anchor[1] + 1;
+        }
+        diff(i, aHi, j, bHi);
+    }
+
+    /** Returns the longest subsequence of PAIRS, which are ordered by
+     *  their first element, whose second elements increase. */
+    private static List<int[]> increasingRun(List<int[]> pairs) {
+        int[] tails = new int[pairs.size()];
+        int[] prev = new int[pairs.size()];
+        int len = 0;
+        for (int p = 0; p < pairs.size(); p += 1) {
+            int key = pairs.get(p)[1];
+            int lo = 0;
+            int hi = len;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (pairs.get(tails[mid])[1] < key) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            prev[p] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = p;
+            len = Math.max(len, lo + 1);
+        }
+        int[][] run = new int[len][];
+        for (int p = len == 0 ? -1 : tails[len - 1], k = len - 1; p >= 0; p = prev[p], k -= 1) {
+            run[k] = pairs.get(p);
+        }
+        return Arrays.asList(run);
+    }
+
+    /** Prints the hunks of the script, reading OLD and NOW once more. */
+    private void printHunks(Source old, Source now, OutputStream out) throws IOException {
+        List<int[]> hunks = hunks();
+        try (LineReader ra = new LineReader(old.open());
+             LineReader rb = new LineReader(now.open())) {
+            int ai = 0;
+            int bi = 0;
+            int h = 0;
+            for (int r = 0; r < script.size && h < hunks.size(); r += 1) {
+                for (int c = 0; c < script.lens[r] && h < hunks.size(); c += 1) {
+                    int[] hunk = hunks.get(h);
+                    if (ai == hunk[0] && bi == hunk[2]) {
+                        write(out, "@@ -" + range(hunk[0], hunk[1] - hunk[0]) + " +"
+                                + range(hunk[2], hunk[3] - hunk[2]) + " @@\n");
+                    }
+                    boolean inside = ai >= hunk[0] && bi >= hunk[2];
+                    int op = script.ops[r];
+                    if (op != INSERT) {
+                        ra.next();
+                        ai += 1;
+                    }
+                    if (op != DELETE) {
+                        rb.next();
+                        bi += 1;
+                    }
+                    if (inside) {
+                        if (op == DELETE) {
+                            ra.print(out, '-');
+                        } else {
+                            rb.print(out, op == INSERT ? '+' : ' ');
+                        }
+                    }
+                    if (ai >= hunk[1] && bi >= hunk[3]) {
+                        h += 1;
+                    }
+                }
+            }
+        }
+    }
+
+    /** Returns the hunks of the script as {old start, old end, new start,
+     *  new end}: each change with CONTEXT lines around it, merged with
+     *  its neighbours where their context would touch or overlap. */
+    private List<int[]> hunks() {
+        List<int[]> result = new ArrayList<>();
+        int ai = 0;
+        int bi = 0;
+        for (int r = 0; r < script.size; r += 1) {
+            int len = script.lens[r];
+            if (script.ops[r] == EQUAL) {
+                ai += len;
+                bi += len;
+                continue;
+            }
+            int[] last = result.isEmpty() ? null : result.get(result.size() - 1);
+            if (last == null || ai - last[1] > 2 * CONTEXT) {
+                int back = Math.min(CONTEXT, Math.min(ai, bi));
+                last = new int[] {ai - back, 0, bi - back, 0};
+                result.add(last);
+            }
+            if (script.ops[r] == DELETE) {
+                ai += len;
+            } else {
+                bi += len;
+            }
+            last[1] = ai;
+            last[3] = bi;
+        }
+        int aTotal = ai;
+        int bTotal = bi;
+        for (int[] hunk : result) {
+            int extra = Math.min(CONTEXT, Math.min(aTotal - hunk[1], bTotal - hunk[3]));
+            hunk[1] += extra;
+            hunk[3] += extra;
+        }
+        return result;
+    }
+
+    /** Returns the range of LEN lines from START as a hunk header shows it. */
+    private static String range(int start, int len) {
+        if (len == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (len == 0 ? start : start + 1) + "," + len;
+    }
+
+    /** Returns true iff the start of SOURCE contains a NUL byte. */
+    private static boolean isBinary(Source source) throws IOException {
+        try (InputStream in = source.open()) {
+            byte[] probe = in.readNBytes(BINARY_PROBE);
+            for (byte c : probe) {
+                if (c == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** Writes S to OUT as UTF-8. */
+    private static void write(OutputStream out, String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** The edit script: runs of one operation, adjacent runs of the same
+     *  operation merged. */
+    private static class Script {
+        /** Operation of each run. */
+        private int[] ops = new int[16];
+        /** Length of each run. */
+        private int[] lens = new int[16];
+        /** Number of runs. */
+        private int size;
+
+        /** Appends N lines of operation OP. */
+        void add(int op, int n) {
+            if (n == 0) {
+                return;
+            }
+            if (size > 0 && ops[size - 1] == op) {
+                lens[size - 1] += n;
+                return;
+            }
+            if (op == DELETE && size > 0 && ops[size - 1] == INSERT) {
+                // Keep deletions ahead of the insertions they sit next to
+                if (size > 1 && ops[size - 2] == DELETE) {
+                    lens[size - 2] += n;
+                    return;
+                }
+                int inserted = lens[size - 1];
+                size -= 1;
+                add(DELETE, n);
+                add(INSERT, inserted);
+                return;
+            }
+            if (size == ops.length) {
+                ops = Arrays.copyOf(ops, size * 2);
+                lens = Arrays.copyOf(lens, size * 2);
+            }
+            ops[size] = op;
+            lens[size] = n;
+            size += 1;
+        }
+    }
+
+    /** A growable list of line hashes, kept in fixed-size blocks so that
+     *  growing never copies. */
+    private static class Hashes {
+        /** log2 of the block size. */
+        private static final int SHIFT = 16;
+        /** The blocks. */
+        private final List<long[]> blocks = new ArrayList<>();
+        /** Number of hashes. */
+        private int size;
+
+        /** Appends HASH. */
+        void add(long hash) {
+            if ((size & ((1 << SHIFT) - 1)) == 0) {
+                blocks.add(new long[1 << SHIFT]);
+            }
+            blocks.get(size >>> SHIFT)[size & ((1 << SHIFT) - 1)] = hash;
+            size += 1;
+        }
+
+        /** Returns hash I. */
+        long get(int i) {
+            return blocks.get(i >>> SHIFT)[i & ((1 << SHIFT) - 1)];
+        }
+
+        /** Returns the number of hashes. */
+        int size() {
+            return size;
+        }
+    }
+
+    /** The furthest-reaching x on each diagonal k of a Myers search, -1
+     *  where none is known yet.  Grows with the number of edits. */
+    private static class Diagonals {
+        /** Values, with diagonal k at index k + offset. */
+        private int[] v = new int[0];
+        /** Index of diagonal 0. */
+        private int offset;
+
+        /** Makes room for diagonals -D-1 .. D+1. */
+        void reserve(int d) {
+            if (d + 1 <= offset && v.length > 0) {
+                return;
+            }
+            int newOffset = Math.max(2 * offset, d + 32);
+            int[] grown = new int[2 * newOffset + 1];
+            Arrays.fill(grown, -1);
+            System.arraycopy(v, 0, grown, newOffset - offset, v.length);
+            v = grown;
+            offset = newOffset;
+        }
+
+        /** Returns the value on diagonal K, or -1. */
+        int get(int k) {
+            int i = k + offset;
+            return i >= 0 && i < v.length ? v[i] : -1;
+        }
+
+        /** Sets the value on diagonal K to X. */
+        void set(int k, int x) {
+            reserve(Math.abs(k));
+            v[k + offset] = x;
+        }
+    }
+
+    /** Reads a stream one line at a time, keeping only the current line. */
+    private static class LineReader implements AutoCloseable {
+        /** The stream. */
+        private final InputStream in;
+        /** Bytes read from the stream and not yet consumed. */
+        private final byte[] buf = new byte[Blob.BUFFER_SIZE];
+        /** Position of the first unconsumed byte in BUF. */
+        private int pos;
+        /** Number of valid bytes in BUF. */
+        private int limit;
+        /** The current line, including its newline if it has one. */
+        private byte[] line = new byte[256];
+        /** Length of the current line. */
+        private int len;
+
+        /** A reader of IN. */
+        LineReader(InputStream in) {
+            this.in = in;
+        }
+
+        /** Reads the next line; returns false at the end of the stream. */
+        boolean next() throws IOException {
+            len = 0;
+            while (true) {
+                if (pos == limit) {
+                    limit = in.read(buf);
+                    pos = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        return len > 0;
+                    }
+                }
+                int end = pos;
+                while (end < limit && buf[end] != '\n') {
+                    end += 1;
+                }
+                boolean found = end < limit;
+                if (found) {
+                    end += 1;
+                }
+                int n = end - pos;
+                if (len + n > line.length) {
+                    line = Arrays.copyOf(line, Math.max(line.length * 2, len + n));
+                }
+                System.arraycopy(buf, pos, line, len, n);
+                len += n;
+                pos = end;
+                if (found) {
+                    return true;
+                }
+            }
+        }
+
+        /** Returns true iff the current line equals that of OTHER. */
+        boolean sameLine(LineReader other) {
+            return Arrays.equals(line, 0, len, other.line, 0, other.len);
+        }
+
+        /** Returns a 64-bit FNV-1a hash of the current line. */
+        long hash() {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < len; i += 1) {
+                h ^= line[i] & 0xff;
+                h *= 0x100000001b3L;
+            }
+            return h;
+        }
+
+        /** Prints the current line to OUT after MARK. */
+        void print(OutputStream out, char mark) throws IOException {
+            out.write(mark);
+            out.write(line, 0, len);
+            if (len == 0 || line[len - 1] != '\n') {
+                out.write('\n');
+                write(out, "\\ No newline at end of file\n");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static gitlet.BenchUtil.*;
+import static gitlet.Utils.*;
+
+/** Times find on repositories of growing size, comparing a scan of
+ *  every message in the commit graph with a lookup in the MessageIndex.
+ *  Usage: java gitlet.FindBenchmark [SIZE ...]
+ *  with default sizes of 1000, 4000 and 16000 commits, each built and
+ *  measured in a child JVM of its own.
+ *  @author Adam Woods
+ */
+public class FindBenchmark {
+
+    /** Number of timed queries of each kind. */
+    private static final int QUERIES = 200;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (isChild(args)) {
+            child(Integer.parseInt(args[1]));
+            return;
+        }
+        header("%12s %14s %14s %14s %14s",
+                "commits", "scan (us)", "exact (us)", "prefix (us)", "word (us)");
+        inChildren(FindBenchmark.class, sizes(args, 1000, 4000, 16000));
+    }
+
+    /** Builds a repository of N commits in the working directory, then
+     *  times the queries and prints one row of the table. */
+    private static void child(int n) {
+        Repository.init();
+        File f = join(Repository.CWD, "f.txt");
+        for (int i = 0; i < n; i += 1) {
+            writeContents(f, Integer.toString(i));
+            Repository.add("f.txt");
+            Repository.commit("change " + i + " of file " + (i % 97));
+        }
+        CommitGraph graph = CommitGraph.load();
+        MessageIndex index = new MessageIndex(graph);
+        index.catchUp();
+
+        long found = 0;
+        long start = System.nanoTime();
+        for (int q = 0; q < QUERIES; q += 1) {
+            String message = "change " + (q * 7919 % n) + " of file " + (q * 7919 % n % 97);
+            for (int i = 0; i < graph.size(); i += 1) {
+                if (graph.message(i).equals(message)) {
+                    found += 1;
+                }
+            }
+        }
+        double scan = (System.nanoTime() - start) / 1e3 / QUERIES;
+
+        start = System.nanoTime();
+        for (int q = 0; q < QUERIES; q += 1) {
+            String message = "change " + (q * 7919 % n) + " of file " + (q * 7919 % n % 97);
+            found -= index.exact(message).size();
+        }
+        double exact = (System.nanoTime() - start) / 1e3 / QUERIES;
+
+        start = System.nanoTime();
+        for (int q = 0; q < QUERIES; q += 1) {
+            List<Integer> hits = index.prefix("change " + (q * 7919 % n) + " ");
+            found += hits.isEmpty() ? 1 : 0;
+        }
+        double prefix = (System.nanoTime() - start) / 1e3 / QUERIES;
+
+        start = System.nanoTime();
+        for (int q = 0; q < QUERIES; q += 1) {
+            found += index.word(Integer.toString(q * 7919 % n)).isEmpty() ? 1 : 0;
+        }
+        double word = (System.nanoTime() - start) / 1e3 / QUERIES;
+
+        if (found != 0) {
+            throw error("index and scan disagree.");
+        }
+        System.out.printf("%12d %14.1f %14.1f %14.1f %14.1f\n", n, scan, exact, prefix, word);
+    }
+}
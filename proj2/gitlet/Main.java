@@ -2,6 +2,9 @@ package gitlet;
 import gitlet.*;
 
 import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
 
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
@@ -22,62 +25,123 @@ public class Main {
             System.out.println("Not in an initialized Gitlet directory.");
         }
         String firstArg = args[0];
-        switch(firstArg) {
-            case "init":
-                checkArgs(args, 1);
-                Repository.init();
-                break;
-            case "add":
-                checkArgs(args, 2);
-                Repository.add(args[1]);
-                break;
-            case "commit":
-                if(args.length == 1 || args[1].equals("")) {
-                    System.out.println("Please enter a commit message.");
+        Trace.start(args);
+        try {
+            switch(firstArg) {
+                case "init":
+                    checkArgs(args, 1);
+                    Repository.init();
                     break;
-                }
-                checkArgs(args, 2);
-                Repository.commit(args[1]);
-                break;
-            case "checkout":
-                checkoutHelper(args);
-                break;
-            case "rm":
-                checkArgs(args, 2);
-                Repository.remove(args[1]);
-                break;
-            case "log":
-                checkArgs(args, 1);
-                Repository.log();
-                break;
-            case "global-log":
-                checkArgs(args, 1);
-                Repository.globalLog();
-                break;
-            case "find":
-                checkArgs(args, 2);
-                Repository.find(args[1]);
-                break;
-            case "status":
-                checkArgs(args, 1);
-                Repository.status();
-                break;
-            case "branch":
-                checkArgs(args, 2);
-                Repository.branch(args[1]);
-                break;
-            case "rm-branch":
-                checkArgs(args, 2);
-                Repository.removeBranch(args[1]);
-                break;
-            case "reset":
-                checkArgs(args, 2);
-                Repository.reset(args[1]);
-                break;
-            default:
-                System.out.println("No command with that name exists.");
-                break;
+                case "add":
+                    if (args.length < 2) {
+                        checkArgs(args, 2);
+                    }
+                    Repository.add(Arrays.copyOfRange(args, 1, args.length));
+                    break;
+                case "commit":
+                    if(args.length == 1 || args[1].equals("")) {
+                        System.out.println("Please enter a commit message.");
+                        break;
+                    }
+                    checkArgs(args, 2);
+                    Repository.commit(args[1]);
+                    break;
+                case "checkout":
+                    checkoutHelper(args);
+                    break;
+                case "rm":
+                    checkArgs(args, 2);
+                    Repository.remove(args[1]);
+                    break;
+                case "log":
+                    checkArgs(args, 1);
+                    Repository.log();
+                    break;
+                case "global-log":
+                    globalLogHelper(args);
+                    break;
+                case "find":
+                    if (args.length == 3 && args[1].equals("--prefix")) {
+                        Repository.findPrefix(args[2]);
+                    } else if (args.length == 3 && args[1].equals("--word")) {
+                        Repository.findWord(args[2]);
+                    } else {
+                        checkArgs(args, 2);
+                        Repository.find(args[1]);
+                    }
+                    break;
+                case "status":
+                    checkArgs(args, 1);
+                    Repository.status();
+                    break;
+                case "branch":
+                    checkArgs(args, 2);
+                    Repository.branch(args[1]);
+                    break;
+                case "rm-branch":
+                    checkArgs(args, 2);
+                    Repository.removeBranch(args[1]);
+                    break;
+                case "reset":
+                    checkArgs(args, 2);
+                    Repository.reset(args[1]);
+                    break;
+                case "diff":
+                    Repository.diff(Arrays.copyOfRange(args, 1, args.length));
+                    break;
+                case "merge":
+                    checkArgs(args, 2);
+                    Repository.merge(args[1]);
+                    break;
+                case "gc":
+                    checkArgs(args, 1);
+                    Repository.gc();
+                    break;
+                case "daemon":
+                    checkArgs(args, 1);
+                    Daemon.serve();
+                    break;
+                case "add-remote":
+                    checkArgs(args, 3);
+                    Repository.addRemote(args[1], args[2]);
+                    break;
+                case "rm-remote":
+                    checkArgs(args, 2);
+                    Repository.removeRemote(args[1]);
+                    break;
+                case "push":
+                    checkArgs(args, 3);
+                    Repository.push(args[1], args[2]);
+                    break;
+                case "fetch":
+                    checkArgs(args, 3);
+                    Repository.fetch(args[1], args[2]);
+                    break;
+                case "pull":
+                    checkArgs(args, 3);
+                    Repository.pull(args[1], args[2]);
+                    break;
+                default:
+                    System.out.println("No command with that name exists.");
+                    break;
+            }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            // Nothing the failed command changed in memory is kept
+            Stage.forget();
+            StatIndex.forget();
+            Trace.finish("error");
+            return;
+        } catch (RuntimeException excp) {
+            Trace.finish("exception");
+            throw excp;
         }
+        Trace.phase("flush");
+        Stage.flush();
+        StatIndex.flush();
+        Utils.syncAll();
+        Trace.finish("ok");
+        ObjectCache.report();
     }
 
     public static void checkArgs(String[] args, int n) {
@@ -86,6 +150,33 @@ public class Main {
         }
     }
 
+    /** Runs global-log with the options in ARGS: --limit N stops after N
+     *  commits and --since DATE (yyyy-MM-dd, optionally followed by
+     *  HH:mm:ss) skips older commits. */
+    public static void globalLogHelper(String[] args) {
+        int limit = 0;
+        long since = Long.MIN_VALUE;
+        try {
+            for (int i = 1; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException();
+                } else if (args[i].equals("--limit")) {
+                    limit = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("--since")) {
+                    String pattern = args[i + 1].length() > 10
+                            ? "yyyy-MM-dd HH:mm:ss" : "yyyy-MM-dd";
+                    since = new SimpleDateFormat(pattern).parse(args[i + 1]).getTime();
+                } else {
+                    throw new IllegalArgumentException();
+                }
+            }
+        } catch (IllegalArgumentException | ParseException excp) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        Repository.globalLog(limit, since);
+    }
+
     public static void checkoutHelper(String[] args) {
         if (args.length == 3) {
             if (!args[1].equals("--")) {
@@ -0,0 +1,120 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+
+import static gitlet.BenchUtil.*;
+import static gitlet.Utils.*;
+
+/** Times finding the split point of a merge on synthetic histories full
+ *  of merge commits, comparing a breadth-first search over deserialized
+ *  commits with CommitGraph.mergeBase.
+ *  Usage: java gitlet.MergeBenchmark [MERGES ...]
+ *  with defaults of 200, 800 and 3200 merges.  Each history has a master
+ *  and a dev branch; every round commits once on each and merges dev into
+ *  master, and a last commit on dev leaves the split point one commit
+ *  behind both heads.  Each repository is built and measured in a child
+ *  JVM of its own.
+ *  @author Adam Woods
+ */
+public class MergeBenchmark {
+
+    /** Number of timed searches of each kind. */
+    private static final int QUERIES = 20;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (isChild(args)) {
+            child(Integer.parseInt(args[1]));
+            return;
+        }
+        header("%12s %12s %14s %14s", "merges", "commits", "bfs (us)", "graph (us)");
+        inChildren(MergeBenchmark.class, sizes(args, 200, 800, 3200));
+    }
+
+    /** Builds a history of N merges in the working directory, then times
+     *  both searches and prints one row of the table. */
+    private static void child(int n) {
+        Repository.init();
+        Repository.branch("dev");
+        File m = join(Repository.CWD, "m.txt");
+        File d = join(Repository.CWD, "d.txt");
+        for (int i = 0; i <= n; i += 1) {
+            Repository.checkoutBranch("dev");
+            writeContents(d, Integer.toString(i));
+            Repository.add("d.txt");
+            Repository.commit("dev " + i);
+            if (i == n) {
+                break;
+            }
+            Repository.checkoutBranch("master");
+            writeContents(m, Integer.toString(i));
+            Repository.add("m.txt");
+            Repository.commit("master " + i);
+            Repository.merge("dev");
+        }
+        String dev = Repository.getHeadSha();
+        Repository.checkoutBranch("master");
+        String master = Repository.getHeadSha();
+
+        long start = System.nanoTime();
+        String expected = null;
+        for (int q = 0; q < QUERIES; q += 1) {
+            expected = bfs(master, dev);
+        }
+        double bfs = (System.nanoTime() - start) / 1e3 / QUERIES;
+
+        start = System.nanoTime();
+        String found = null;
+        for (int q = 0; q < QUERIES; q += 1) {
+            CommitGraph graph = CommitGraph.load();
+            found = graph.sha(graph.mergeBase(graph.find(master), graph.find(dev)));
+        }
+        double generations = (System.nanoTime() - start) / 1e3 / QUERIES;
+
+        if (!found.equals(expected)) {
+            throw error("searches disagree: %s and %s.", expected, found);
+        }
+        System.out.printf("%12d %12d %14.1f %14.1f\n", n, CommitGraph.load().size(),
+                bfs, generations);
+    }
+
+    /** Returns the split point of A and B found the naive way: mark every
+     *  ancestor of A, then search breadth-first from B for the nearest
+     *  marked commit, reading and deserializing each commit on the way. */
+    private static String bfs(String a, String b) {
+        HashSet<String> ancestors = new HashSet<>();
+        ArrayDeque<String> queue = new ArrayDeque<>();
+        queue.add(a);
+        while (!queue.isEmpty()) {
+            String sha = queue.poll();
+            if (ancestors.add(sha)) {
+                Commit c = read(sha);
+                if (c.getParents() != null) {
+                    queue.addAll(c.getParents());
+                }
+            }
+        }
+        HashSet<String> seen = new HashSet<>();
+        queue.add(b);
+        while (!queue.isEmpty()) {
+            String sha = queue.poll();
+            if (ancestors.contains(sha)) {
+                return sha;
+            }
+            if (seen.add(sha)) {
+                Commit c = read(sha);
+                if (c.getParents() != null) {
+                    queue.addAll(c.getParents());
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Reads and deserializes commit SHA, bypassing the ObjectCache. */
+    private static Commit read(String sha) {
+        return Commit.decode(ObjectStore.read(ObjectStore.COMMIT, sha));
+    }
+}
@@ -0,0 +1,496 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** An inverted index from commit messages to commits, used by find.
+ *  The directory message-index holds segments: tables, sorted by key,
+ *  that map each key to the record numbers (see CommitGraph) of the
+ *  commits it appears in, each for one run of consecutive records.
+ *  There are two kinds of key: 'm' followed by a whole message, for
+ *  exact and prefix searches, and 't' followed by one lower-cased word
+ *  of a message, for word searches.  A table of key offsets lets a
+ *  lookup binary-search a mapped segment.
+ *  The segments cover the first commits of the graph; commits appended
+ *  since are searched by reading their messages from the graph.  Once
+ *  that tail reaches MAX_TAIL commits, the next commit or find writes it
+ *  as a new segment, so a find reads fewer than MAX_TAIL messages.  As
+ *  in a log-structured merge tree, whenever the newest FANOUT segments
+ *  are the same size they are merged into one, streaming their sorted
+ *  tables together, so each commit is rewritten once per size tier and
+ *  a find searches at most FANOUT - 1 segments per tier.  A merged
+ *  segment is in place before those it replaces are deleted; after a
+ *  crash the largest segments that chain from record 0 are used.
+ *  Segment layout: magic, version, first record covered, record after
+ *  the last; for each key its UTF-8 length and bytes, the number of
+ *  commits and their record numbers; then the offset of each key's
+ *  entry, the number of keys and the offset of that table.
+ *  @author Adam Woods
+ */
+class MessageIndex {
+
+    /** Magic number at the start of a segment ("GMI2"). */
+    private static final int MAGIC = 0x474d4932;
+    /** Size of the header: magic, version, start and end. */
+    private static final int HEADER = 16;
+    /** Size of the trailer: key count and key table offset. */
+    private static final int TRAILER = 8;
+    /** Length at which the tail is written as a segment. */
+    private static final int MAX_TAIL = 256;
+    /** Number of segments of one size that are merged into one. */
+    private static final int FANOUT = 4;
+
+    /** The index directory. */
+    static final File INDEX = join(Repository.GITLET_DIR, "message-index");
+
+    /** The commit graph the record numbers refer to. */
+    private final CommitGraph graph;
+    /** The segments in use, in record order. */
+    private final List<Segment> segments = new ArrayList<>();
+    /** Number of graph records the segments cover. */
+    private int covered;
+
+    /** One mapped segment. */
+    private static class Segment {
+        /** The segment file. */
+        private final File file;
+        /** Its mapped contents. */
+        private final MappedByteBuffer buf;
+        /** First record it covers, and the record after the last. */
+        private final int start;
+        private final int end;
+        /** Number of keys. */
+        private final int keys;
+        /** Offset of the key offset table. */
+        private final int table;
+
+        /** A segment mapped from FILE, whose contents are BUF. */
+        Segment(File file, MappedByteBuffer buf) {
+            this.file = file;
+            this.buf = buf;
+            start = buf.getInt(8);
+            end = buf.getInt(12);
+            keys = buf.getInt(buf.capacity() - TRAILER);
+            table = buf.getInt(buf.capacity() - 4);
+        }
+
+        /** Returns the number of records covered. */
+        int size() {
+            return end - start;
+        }
+
+        /** Returns the offset of the entry of key number K. */
+        int entry(int k) {
+            return buf.getInt(table + 4 * k);
+        }
+
+        /** Returns the UTF-8 bytes of key number K. */
+        byte[] keyBytes(int k) {
+            int off = entry(k);
+            byte[] bytes = new byte[buf.getInt(off)];
+            buf.get(off + 4, bytes);
+            return bytes;
+        }
+
+        /** Returns key number K. */
+        String key(int k) {
+            return new String(keyBytes(k), StandardCharsets.UTF_8);
+        }
+
+        /** Returns the offset of the postings count of key number K. */
+        int postings(int k) {
+            int off = entry(k);
+            return off + 4 + buf.getInt(off);
+        }
+
+        /** Returns the number of the first key not less than KEY. */
+        int lowerBound(String key) {
+            int lo = 0;
+            int hi = keys;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (key(mid).compareTo(key) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        /** Adds the record numbers listed under key number K to RESULT. */
+        void addPostings(int k, TreeSet<Integer> result) {
+            int off = postings(k);
+            int n = buf.getInt(off);
+            for (int j = 0; j < n; j += 1) {
+                result.add(buf.getInt(off + 4 + 4 * j));
+            }
+        }
+    }
+
+    /** The position of a merge in one of its input segments. */
+    private static class Cursor implements Comparable<Cursor> {
+        /** The segment. */
+        private final Segment segment;
+        /** Position of the segment among the inputs. */
+        private final int order;
+        /** Number of the current key, and the key itself. */
+        private int k;
+        private String key;
+
+        /** A cursor at the first key of SEGMENT, input number ORDER. */
+        Cursor(Segment segment, int order) {
+            this.segment = segment;
+            this.order = order;
+            key = segment.key(0);
+        }
+
+        /** Moves to the next key, returning false if there is none. */
+        boolean advance() {
+            k += 1;
+            if (k == segment.keys) {
+                return false;
+            }
+            key = segment.key(k);
+            return true;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            int c = key.compareTo(other.key);
+            return c != 0 ? c : Integer.compare(order, other.order);
+        }
+    }
+
+    /** Writes a segment to a temporary file, one entry at a time in key
+     *  order. */
+    private static class Writer {
+        /** The temporary file. */
+        private final File tmp;
+        /** Output to it. */
+        private final DataOutputStream out;
+        /** Offsets of the entries written so far. */
+        private int[] offsets = new int[64];
+        /** Number of entries written so far. */
+        private int keys;
+
+        /** A writer of the segment for records START to END. */
+        Writer(int start, int end) throws IOException {
+            tmp = File.createTempFile(".segment-", ".tmp", INDEX);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(2);
+            out.writeInt(start);
+            out.writeInt(end);
+        }
+
+        /** Begins the entry of the key whose UTF-8 bytes are KEY, which
+         *  lists N record numbers; the caller writes them to out. */
+        void begin(byte[] key, int n) throws IOException {
+            if (keys == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * keys);
+            }
+            offsets[keys] = out.size();
+            keys += 1;
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeInt(n);
+        }
+
+        /** Writes the key offset table and closes the file. */
+        void finish() throws IOException {
+            int table = out.size();
+            for (int k = 0; k < keys; k += 1) {
+                out.writeInt(offsets[k]);
+            }
+            out.writeInt(keys);
+            out.writeInt(table);
+            out.close();
+        }
+    }
+
+    /** Opens the index of the commits in GRAPH. */
+    MessageIndex(CommitGraph graph) {
+        this.graph = graph;
+        open();
+    }
+
+    /** Returns the record numbers of the commits whose message is
+     *  exactly MESSAGE, in graph order. */
+    List<Integer> exact(String message) {
+        TreeSet<Integer> result = new TreeSet<>();
+        for (Segment s : segments) {
+            int k = s.lowerBound("m" + message);
+            if (k < s.keys && s.key(k).equals("m" + message)) {
+                s.addPostings(k, result);
+            }
+        }
+        for (int i = covered; i < graph.size(); i += 1) {
+            if (graph.message(i).equals(message)) {
+                result.add(i);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the record numbers of the commits whose message starts
+     *  with PREFIX, in graph order. */
+    List<Integer> prefix(String prefix) {
+        TreeSet<Integer> result = new TreeSet<>();
+        for (Segment s : segments) {
+            for (int k = s.lowerBound("m" + prefix); k < s.keys; k += 1) {
+                if (!s.key(k).startsWith("m" + prefix)) {
+                    break;
+                }
+                s.addPostings(k, result);
+            }
+        }
+        for (int i = covered; i < graph.size(); i += 1) {
+            if (graph.message(i).startsWith(prefix)) {
+                result.add(i);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the record numbers of the commits whose message contains
+     *  the word WORD, ignoring case, in graph order. */
+    List<Integer> word(String word) {
+        TreeSet<Integer> result = new TreeSet<>();
+        String w = word.toLowerCase(Locale.ROOT);
+        for (Segment s : segments) {
+            int k = s.lowerBound("t" + w);
+            if (k < s.keys && s.key(k).equals("t" + w)) {
+                s.addPostings(k, result);
+            }
+        }
+        for (int i = covered; i < graph.size(); i += 1) {
+            String message = graph.message(i);
+            if (message.toLowerCase(Locale.ROOT).contains(w) && words(message).contains(w)) {
+                result.add(i);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Writes the commits added to the graph since the last segment as
+     *  new segments of MAX_TAIL commits, merging segments as they fill a
+     *  tier. */
+    void catchUp() {
+        if (graph.size() - covered < MAX_TAIL) {
+            return;
+        }
+        if (!INDEX.isDirectory()) {
+            // An index in the old single-file format is replaced
+            INDEX.delete();
+            INDEX.mkdir();
+        }
+        try {
+            while (graph.size() - covered >= MAX_TAIL) {
+                segments.add(writeTail(covered, covered + MAX_TAIL));
+                covered += MAX_TAIL;
+                while (segments.size() >= FANOUT && sameSize(segments.size() - FANOUT)) {
+                    int first = segments.size() - FANOUT;
+                    List<Segment> inputs = new ArrayList<>(segments.subList(first,
+                            segments.size()));
+                    segments.subList(first, segments.size()).clear();
+                    segments.add(merge(inputs));
+                    for (Segment s : inputs) {
+                        s.file.delete();
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        prune();
+    }
+
+    /** Deletes the index in the repository directory DIR. */
+    static void discard(File dir) {
+        File index = join(dir, INDEX.getName());
+        File[] files = index.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        index.delete();
+    }
+
+    /** Returns the distinct lower-cased words of MESSAGE. */
+    static TreeSet<String> words(String message) {
+        TreeSet<String> result = new TreeSet<>(Arrays.asList(
+                message.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")));
+        result.remove("");
+        return result;
+    }
+
+    /** Returns true iff the FANOUT segments from number FIRST on all
+     *  cover the same number of records. */
+    private boolean sameSize(int first) {
+        for (int i = first + 1; i < first + FANOUT; i += 1) {
+            if (segments.get(i).size() != segments.get(first).size()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes and returns the segment of graph records START to END,
+     *  read from their messages. */
+    private Segment writeTail(int start, int end) throws IOException {
+        TreeMap<String, List<Integer>> postings = new TreeMap<>();
+        for (int i = start; i < end; i += 1) {
+            String message = graph.message(i);
+            postings.computeIfAbsent("m" + message, x -> new ArrayList<>()).add(i);
+            for (String w : words(message)) {
+                postings.computeIfAbsent("t" + w, x -> new ArrayList<>()).add(i);
+            }
+        }
+        Writer w = new Writer(start, end);
+        for (Map.Entry<String, List<Integer>> e : postings.entrySet()) {
+            w.begin(e.getKey().getBytes(StandardCharsets.UTF_8), e.getValue().size());
+            for (int i : e.getValue()) {
+                w.out.writeInt(i);
+            }
+        }
+        return install(w, start, end);
+    }
+
+    /** Writes and returns the segment that merges INPUTS, consecutive
+     *  segments in record order.  Their tables are read in key order
+     *  side by side, so no more than one key of each is held at once;
+     *  postings of a key in several inputs are copied in input order,
+     *  which keeps them in record order. */
+    private Segment merge(List<Segment> inputs) throws IOException {
+        int start = inputs.get(0).start;
+        int end = inputs.get(inputs.size() - 1).end;
+        Writer w = new Writer(start, end);
+        PriorityQueue<Cursor> queue = new PriorityQueue<>();
+        for (int i = 0; i < inputs.size(); i += 1) {
+            if (inputs.get(i).keys > 0) {
+                queue.add(new Cursor(inputs.get(i), i));
+            }
+        }
+        List<Cursor> same = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            same.clear();
+            same.add(queue.poll());
+            while (!queue.isEmpty() && queue.peek().key.equals(same.get(0).key)) {
+                same.add(queue.poll());
+            }
+            int n = 0;
+            for (Cursor c : same) {
+                n += c.segment.buf.getInt(c.segment.postings(c.k));
+            }
+            w.begin(same.get(0).segment.keyBytes(same.get(0).k), n);
+            for (Cursor c : same) {
+                int off = c.segment.postings(c.k);
+                byte[] ids = new byte[4 * c.segment.buf.getInt(off)];
+                c.segment.buf.get(off + 4, ids);
+                w.out.write(ids);
+                if (c.advance()) {
+                    queue.add(c);
+                }
+            }
+        }
+        return install(w, start, end);
+    }
+
+    /** Finishes the segment W of records START to END, renames it into
+     *  place and returns it mapped. */
+    private Segment install(Writer w, int start, int end) throws IOException {
+        w.finish();
+        File file = join(INDEX, start + "-" + end);
+        moveAtomic(w.tmp, file);
+        // In group mode the rename waits for syncAll, and the segment is
+        // mapped right away
+        syncAll();
+        Segment result = map(file);
+        if (result == null) {
+            throw error("Could not map %s.", file);
+        }
+        return result;
+    }
+
+    /** Maps the segments that chain from record 0, taking the largest at
+     *  each step. */
+    private void open() {
+        segments.clear();
+        covered = 0;
+        File[] files = INDEX.listFiles();
+        if (files == null) {
+            return;
+        }
+        TreeMap<Integer, Segment> byStart = new TreeMap<>();
+        for (File f : files) {
+            if (f.getName().startsWith(".")) {
+                continue;
+            }
+            Segment s = map(f);
+            if (s == null || s.end > graph.size()) {
+                continue;
+            }
+            Segment other = byStart.get(s.start);
+            if (other == null || other.end < s.end) {
+                byStart.put(s.start, s);
+            }
+        }
+        for (Segment s = byStart.get(0); s != null; s = byStart.get(s.end)) {
+            segments.add(s);
+            covered = s.end;
+        }
+    }
+
+    /** Deletes the files in the index directory that are not segments
+     *  in use, such as those a crash kept from being replaced and
+     *  temporary files it left. */
+    private void prune() {
+        TreeSet<String> used = new TreeSet<>();
+        for (Segment s : segments) {
+            used.add(s.file.getName());
+        }
+        File[] files = INDEX.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (!used.contains(f.getName())) {
+                f.delete();
+            }
+        }
+    }
+
+    /** Returns the segment in FILE, or null if it is not a valid one. */
+    private static Segment map(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.capacity() < HEADER + TRAILER || buf.getInt(0) != MAGIC
+                    || buf.getInt(buf.capacity() - 4) > buf.capacity() - TRAILER) {
+                return null;
+            }
+            return new Segment(file, buf);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+}
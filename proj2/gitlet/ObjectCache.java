@@ -0,0 +1,72 @@
+package gitlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A bounded cache of decoded commits and trees, keyed by SHA-1.
+ *  One command often reads the same objects many times (the head commit
+ *  once per working file, the root tree once per lookup), and each read
+ *  would otherwise inflate and decode the object again.  Objects are
+ *  immutable once stored, so a cached copy never goes stale; the least
+ *  recently used entry is dropped once the cache holds more than
+ *  -Dgitlet.cache entries (default 4096).  With -Dgitlet.cachestats the
+ *  hit and miss counts are printed to standard error after each command.
+ *  @author Adam Woods
+ */
+class ObjectCache {
+
+    /** Maximum number of cached objects. */
+    static final int CAPACITY = Integer.getInteger("gitlet.cache", 4096);
+
+    /** Cached objects by SHA-1, least recently used first. */
+    private static final LinkedHashMap<String, Object> OBJECTS =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                return size() > CAPACITY;
+            }
+        };
+
+    /** Number of lookups that found their object. */
+    private static long hits;
+    /** Number of lookups that did not. */
+    private static long misses;
+
+    /** Returns the cached object SHA if it is a TYPE, or null. */
+    static synchronized <T> T get(String sha, Class<T> type) {
+        Object o = OBJECTS.get(sha);
+        if (type.isInstance(o)) {
+            hits += 1;
+            return type.cast(o);
+        }
+        misses += 1;
+        return null;
+    }
+
+    /** Caches OBJ, the decoded object SHA, and returns it. */
+    static synchronized <T> T put(String sha, T obj) {
+        if (obj != null && CAPACITY > 0) {
+            OBJECTS.put(sha, obj);
+        }
+        return obj;
+    }
+
+    /** Returns the number of lookups that found their object. */
+    static synchronized long hits() {
+        return hits;
+    }
+
+    /** Returns the number of lookups that did not. */
+    static synchronized long misses() {
+        return misses;
+    }
+
+    /** Prints the hit and miss counts to standard error if
+     *  -Dgitlet.cachestats is set. */
+    static void report() {
+        if (System.getProperty("gitlet.cachestats") != null) {
+            System.err.printf("object cache: %d hits, %d misses, %d cached%n",
+                    hits(), misses(), OBJECTS.size());
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** Storage for the commits, trees and blobs of a repository.
+ *  New objects are written loose, one file each: commits under
+ *  commits/<first 2 digits of sha>/<sha>, trees under trees/<sha> and
+ *  blobs under blobs/<sha>.
+ *  gc() folds every loose object into a single pack (see Pack), going on
+ *  to another whenever one would grow past Pack.MAX_PACK bytes and leaving
+ *  loose any object too large for a pack of its own.  All reads look in
+ *  the packs first and then fall back to loose files.
+ *  While packing, gc walks the history of each path from its newest
+ *  version to its oldest and stores each version as a delta against the
+ *  one after it when that is smaller, so that a large file edited a
+ *  little at a time costs little more than the edits.  Chains of deltas
+ *  are at most MAX_DEPTH long, and the newest version of each path is
+ *  stored whole, so checking out recent commits stays cheap.  The blob
+ *  of a file stored chunked (see Blob) is only its list of chunks, so its
+ *  versions are stored as deltas of those lists, and its chunks, which
+ *  no tree names, are packed whole after every other blob.
+ *  @author Adam Woods
+ */
+class ObjectStore {
+
+    /** Object type of a serialized Commit. */
+    static final int COMMIT = 1;
+    /** Object type of a blob. */
+    static final int BLOB = 2;
+    /** Object type of a Tree. */
+    static final int TREE = 3;
+
+    /** Directory holding the packs. */
+    static final File PACKS = join(Repository.GITLET_DIR, "packs");
+    /** Longest chain of deltas gc builds. */
+    static final int MAX_DEPTH = 10;
+    /** Largest blob, in bytes, that gc stores as or uses as a delta base. */
+    static final long DELTA_LIMIT = 16L << 20;
+
+    /** Packs of this repository, loaded on first use. */
+    private static List<Pack> packs;
+    /** Sorted SHA-1s of every stored commit, built on first use. */
+    private static String[] commitIndex;
+
+    /** Returns the packs of this repository. */
+    static List<Pack> packs() {
+        if (packs == null) {
+            packs = openPacks(PACKS);
+        }
+        return packs;
+    }
+
+    /** Opens the packs in the directory DIR. */
+    static List<Pack> openPacks(File dir) {
+        List<Pack> result = new ArrayList<>();
+        String[] names = dir.list((d, name) -> name.endsWith(".idx"));
+        if (names != null) {
+            Arrays.sort(names);
+            for (String name : names) {
+                result.add(new Pack(join(dir, name)));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the file a loose object SHA of type TYPE is stored in. */
+    static File looseFile(int type, String sha) {
+        return looseFile(Repository.GITLET_DIR, type, sha);
+    }
+
+    /** Returns the file a loose object SHA of type TYPE is stored in, in
+     *  the repository whose .gitlet directory is DIR. */
+    static File looseFile(File dir, int type, String sha) {
+        if (type == COMMIT) {
+            return join(dir, Repository.COMMITS.getName(), sha.substring(0, 2), sha);
+        } else if (type == TREE) {
+            return join(dir, Repository.TREES.getName(), sha);
+        }
+        return join(dir, Repository.BLOBS.getName(), sha);
+    }
+
+    /** Returns true iff the object SHA of type TYPE is stored, packed
+     *  or loose. */
+    static boolean contains(int type, String sha) {
+        for (Pack p : packs()) {
+            int i = p.find(sha);
+            if (i >= 0 && p.type(i) == type) {
+                return true;
+            }
+        }
+        return looseFile(type, sha).isFile();
+    }
+
+    /** Returns the stored contents of object SHA of type TYPE, or null
+     *  if there is no such object. */
+    static byte[] read(int type, String sha) {
+        ByteBuffer packed = readPacked(type, sha);
+        if (packed != null) {
+            byte[] result = new byte[packed.remaining()];
+            packed.get(result);
+            Trace.read(result.length);
+            return result;
+        }
+        File f = looseFile(type, sha);
+        if (!f.isFile()) {
+            return null;
+        }
+        return readContents(f);
+    }
+
+    /** Returns a view of the packed contents of object SHA of type TYPE,
+     *  or null if it is not in any pack. */
+    static ByteBuffer readPacked(int type, String sha) {
+        for (Pack p : packs()) {
+            int i = p.find(sha);
+            if (i >= 0 && p.type(i) == type) {
+                return p.payload(i);
+            }
+        }
+        return null;
+    }
+
+    /** Returns the full SHA-1s of all stored commits whose id starts with
+     *  PREFIX, in sorted order.  Uses a binary search of commitIndex(). */
+    static List<String> commitsWithPrefix(String prefix) {
+        String[] ids = commitIndex();
+        int lo = 0;
+        int hi = ids.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ids[mid].compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        List<String> result = new ArrayList<>();
+        for (int i = lo; i < ids.length && ids[i].startsWith(prefix); i += 1) {
+            result.add(ids[i]);
+        }
+        return result;
+    }
+
+    /** Returns the sorted SHA-1s of every stored commit, building the
+     *  array on first use. */
+    private static String[] commitIndex() {
+        if (commitIndex == null) {
+            commitIndex = commitIds().toArray(new String[0]);
+        }
+        return commitIndex;
+    }
+
+    /** Records that a new pack has been written to PACKS. */
+    static void packAdded() {
+        packs = null;
+        commitIndex = null;
+    }
+
+    /** Records that a new object SHA of type TYPE has been stored. */
+    static void added(int type, String sha) {
+        if (type == COMMIT) {
+            commitIndex = null;
+        }
+    }
+
+    /** Returns the SHA-1s of every stored commit, in sorted order. */
+    static List<String> commitIds() {
+        TreeSet<String> result = new TreeSet<>();
+        for (Pack p : packs()) {
+            for (int i = 0; i < p.size(); i += 1) {
+                if (p.type(i) == COMMIT) {
+                    result.add(p.name(i));
+                }
+            }
+        }
+        result.addAll(looseIds(COMMIT));
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the SHA-1s of the loose objects of type TYPE.  Temporary
+     *  files not yet renamed to their SHA-1s are skipped. */
+    private static List<String> looseIds(int type) {
+        List<String> result = new ArrayList<>();
+        if (type != COMMIT) {
+            addIds(type == TREE ? Repository.TREES : Repository.BLOBS, result);
+            return result;
+        }
+        File[] dirs = Repository.COMMITS.listFiles();
+        if (dirs == null) {
+            return result;
+        }
+        for (File dir : dirs) {
+            if (dir.isDirectory() && !dir.getName().equals("branches")) {
+                addIds(dir, result);
+            }
+        }
+        return result;
+    }
+
+    /** Adds the names of the files in DIR that are SHA-1s to RESULT. */
+    private static void addIds(File dir, List<String> result) {
+        List<String> names = plainFilenamesIn(dir);
+        if (names != null) {
+            for (String name : names) {
+                if (name.length() == UID_LENGTH && !name.endsWith(".tmp")) {
+                    result.add(name);
+                }
+            }
+        }
+    }
+
+    /** Repacks every object of the repository, packed or loose, into
+     *  new packs, then removes the old packs and loose files. */
+    static void gc() {
+        List<Pack> old = packs();
+        int[] types = {COMMIT, TREE, BLOB};
+        List<List<String>> loose = new ArrayList<>();
+        TreeSet<String> written = new TreeSet<>();
+        boolean anyLoose = false;
+        for (int type : types) {
+            List<String> ids = looseIds(type);
+            // Objects too large for any pack stay loose
+            for (String sha : ids) {
+                if (!Pack.fits(looseFile(type, sha).length())) {
+                    written.add(sha);
+                }
+            }
+            ids.removeAll(written);
+            loose.add(ids);
+            anyLoose |= !ids.isEmpty();
+        }
+        if (!anyLoose && old.size() <= 1) {
+            return;
+        }
+        Pack.Writer writer = new Pack.Writer(PACKS);
+        for (Pack p : old) {
+            for (int i = 0; i < p.size(); i += 1) {
+                String sha = p.name(i);
+                if (p.type(i) != BLOB && written.add(sha)) {
+                    writer.add(p.type(i), sha, p.payload(i));
+                }
+            }
+        }
+        for (int t = 0; t < types.length; t += 1) {
+            for (String sha : loose.get(t)) {
+                if (types[t] != BLOB && written.add(sha)) {
+                    writer.add(types[t], sha, looseFile(types[t], sha));
+                }
+            }
+        }
+        addBlobs(writer, written);
+        for (Pack p : old) {
+            for (int i = 0; i < p.size(); i += 1) {
+                if (p.type(i) == BLOB && written.add(p.name(i))) {
+                    addWhole(writer, p.name(i));
+                }
+            }
+        }
+        for (String sha : loose.get(2)) {
+            if (written.add(sha)) {
+                addWhole(writer, sha);
+            }
+        }
+        List<File> made = writer.finish();
+        // The new packs must be on disk before anything they replace is deleted
+        syncAll();
+        for (Pack p : old) {
+            if (!made.contains(p.idxFile())) {
+                p.idxFile().delete();
+                p.packFile().delete();
+            }
+        }
+        for (int t = 0; t < types.length; t += 1) {
+            for (String sha : loose.get(t)) {
+                looseFile(types[t], sha).delete();
+            }
+        }
+        for (File dir : Repository.COMMITS.listFiles()) {
+            if (dir.isDirectory() && !dir.getName().equals("branches")) {
+                dir.delete();
+            }
+        }
+        packs = null;
+        commitIndex = null;
+    }
+
+    /** Adds the blobs of the history of every path to WRITER, adding
+     *  their SHA-1s to WRITTEN and skipping those already in it.  The
+     *  versions of a path are visited newest first, and each is stored as
+     *  a delta against the version visited before it if the delta is
+     *  smaller than the whole blob and its chain stays within MAX_DEPTH. */
+    private static void addBlobs(Pack.Writer writer, TreeSet<String> written) {
+        HashMap<String, Integer> depths = new HashMap<>();
+        for (List<String> versions : pathHistories()) {
+            String base = null;
+            byte[] baseBytes = null;
+            for (int v = versions.size() - 1; v >= 0; v -= 1) {
+                String sha = versions.get(v);
+                if (written.contains(sha)) {
+                    base = depths.containsKey(sha) ? sha : null;
+                    baseBytes = null;
+                    continue;
+                }
+                if (!contains(BLOB, sha)) {
+                    continue;
+                }
+                written.add(sha);
+                long size = Blob.storedSize(sha);
+                byte[] bytes = size >= 0 && size <= DELTA_LIMIT ? readRaw(sha) : null;
+                if (bytes != null && base != null && depths.get(base) < MAX_DEPTH) {
+                    if (baseBytes == null && Blob.storedSize(base) <= DELTA_LIMIT) {
+                        baseBytes = readRaw(base);
+                    }
+                    if (baseBytes != null) {
+                        byte[] delta = compress(Delta.encode(baseBytes, bytes));
+                        if (Pack.SHA_BYTES + delta.length < wholeSize(sha, bytes)
+                                && writer.addDelta(sha, base, delta)) {
+                            depths.put(sha, depths.get(base) + 1);
+                            base = sha;
+                            baseBytes = bytes;
+                            continue;
+                        }
+                    }
+                }
+                addWhole(writer, sha);
+                depths.put(sha, 0);
+                base = bytes == null ? null : sha;
+                baseBytes = bytes;
+            }
+        }
+    }
+
+    /** Returns the blob SHA-1s each path has had in the history of the
+     *  repository, oldest first, in parents-first order of the commits
+     *  that introduced them. */
+    private static Collection<List<String>> pathHistories() {
+        CommitGraph graph = CommitGraph.load();
+        TreeMap<String, List<String>> histories = new TreeMap<>();
+        for (int i = 0; i < graph.size(); i += 1) {
+            Commit c = Repository.getCommit(graph.sha(i));
+            int p = graph.parent(i, 0);
+            Commit parent = p < 0 ? null : Repository.getCommit(graph.sha(p));
+            for (Map.Entry<String, String> e : c.changesFrom(parent).entrySet()) {
+                if (e.getValue() != null) {
+                    histories.computeIfAbsent(e.getKey(), k -> new ArrayList<>())
+                        .add(e.getValue());
+                }
+            }
+        }
+        return histories.values();
+    }
+
+    /** Returns the uncompressed contents of the blob SHA, header included. */
+    private static byte[] readRaw(String sha) {
+        return Pack.inflate(ByteBuffer.wrap(read(BLOB, sha)));
+    }
+
+    /** Returns the number of bytes the blob SHA, whose uncompressed
+     *  contents are BYTES, takes when stored whole. */
+    private static long wholeSize(String sha, byte[] bytes) {
+        for (Pack p : packs()) {
+            int i = p.find(sha);
+            if (i >= 0 && p.type(i) == BLOB) {
+                return p.isDelta(i) ? compress(bytes).length : p.payload(i).remaining();
+            }
+        }
+        return looseFile(BLOB, sha).length();
+    }
+
+    /** Adds the blob SHA to WRITER whole, copying its stored form unless
+     *  it is only stored as a delta. */
+    private static void addWhole(Pack.Writer writer, String sha) {
+        for (Pack p : packs()) {
+            int i = p.find(sha);
+            if (i >= 0 && p.type(i) == BLOB) {
+                if (p.isDelta(i)) {
+                    writer.add(BLOB, sha, compress(readRaw(sha)));
+                } else {
+                    writer.add(BLOB, sha, p.payload(i));
+                }
+                return;
+            }
+        }
+        writer.add(BLOB, sha, looseFile(BLOB, sha));
+    }
+}
@@ -0,0 +1,481 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** A read-only, memory-mapped pack of gitlet objects.
+ *  A pack is a pair of files.  NAME.pack holds the objects back to back,
+ *  each as a type byte, a payload length and the payload itself.
+ *  A blob whose type byte has the DELTA bit set is stored as a delta
+ *  (see Delta) against another object of the same pack: its payload is
+ *  the raw SHA-1 of that base followed by the compressed delta.  Such
+ *  blobs are rebuilt on read, and the objects rebuilt along the way are
+ *  kept in a small cache so that reading a chain of versions rebuilds
+ *  each one only once.
+ *  NAME.idx holds a 256-entry fan-out table keyed by the first byte of
+ *  each SHA-1, followed by the sorted SHA-1s and the offset of each
+ *  object in NAME.pack, so a lookup is a binary search over a small range.
+ *  A pack is mapped as one buffer and read at int offsets, so no pack is
+ *  larger than MAX_PACK bytes: a Writer starts a new pack when the next
+ *  object would not fit in the current one.
+ *  @author Adam Woods
+ */
+class Pack {
+
+    /** Magic number at the start of every .pack file ("GPK1"). */
+    static final int PACK_MAGIC = 0x47504b31;
+    /** Magic number at the start of every .idx file ("GID1"). */
+    static final int IDX_MAGIC = 0x47494431;
+    /** Length of a raw SHA-1 in bytes. */
+    static final int SHA_BYTES = UID_LENGTH / 2;
+    /** Size of the .idx header: magic, version and the fan-out table. */
+    private static final int IDX_HEADER = 8 + 256 * 4;
+    /** Size of the .pack header: magic, version and object count. */
+    private static final int PACK_HEADER = 12;
+    /** Size of the header in front of each object: type and length. */
+    private static final int ENTRY_HEADER = 5;
+    /** Bit of the type byte marking an object stored as a delta. */
+    static final int DELTA = 0x80;
+    /** Maximum total size in bytes of the objects kept in BASES, set
+     *  with -Dgitlet.deltacache (default 32 MiB). */
+    static final long BASE_CACHE_SIZE = Long.getLong("gitlet.deltacache", 32L << 20);
+    /** Largest pack, in bytes. */
+    static final long MAX_PACK = Integer.MAX_VALUE;
+
+    /** Objects rebuilt from deltas, and the bases they were rebuilt
+     *  from, by SHA-1, least recently used first. */
+    private static final LinkedHashMap<String, byte[]> BASES =
+        new LinkedHashMap<>(16, 0.75f, true);
+    /** Total size of the objects in BASES. */
+    private static long basesSize;
+
+    /** The .pack file. */
+    private final File packFile;
+    /** The .idx file. */
+    private final File idxFile;
+    /** Mapped contents of the .pack file. */
+    private final MappedByteBuffer pack;
+    /** Mapped contents of the .idx file. */
+    private final MappedByteBuffer idx;
+    /** Number of objects in this pack. */
+    private final int size;
+
+    /** Opens the pack whose index is IDXFILE. */
+    Pack(File idxFile) {
+        this.idxFile = idxFile;
+        String name = idxFile.getName();
+        this.packFile = new File(idxFile.getParentFile(),
+                name.substring(0, name.length() - 4) + ".pack");
+        if (packFile.length() > MAX_PACK || idxFile.length() > MAX_PACK) {
+            throw error("Pack %s is larger than %d bytes and cannot be read.",
+                    packFile.getName(), MAX_PACK);
+        }
+        this.idx = map(idxFile);
+        this.pack = map(packFile);
+        if (idx.getInt(0) != IDX_MAGIC || pack.getInt(0) != PACK_MAGIC) {
+            throw error("Corrupt pack %s.", name);
+        }
+        this.size = idx.getInt(8 + 255 * 4);
+    }
+
+    /** Returns true iff an object whose payload is LEN bytes long fits
+     *  in a pack. */
+    static boolean fits(long len) {
+        return len <= MAX_PACK - PACK_HEADER - ENTRY_HEADER;
+    }
+
+    /** Returns the .idx file of this pack. */
+    File idxFile() {
+        return idxFile;
+    }
+
+    /** Returns the .pack file of this pack. */
+    File packFile() {
+        return packFile;
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return size;
+    }
+
+    /** Returns the SHA-1 of the Ith object in sorted order. */
+    String name(int i) {
+        byte[] sha = new byte[SHA_BYTES];
+        idx.get(IDX_HEADER + i * SHA_BYTES, sha);
+        return toHex(sha);
+    }
+
+    /** Returns the type of the Ith object. */
+    int type(int i) {
+        return pack.get(offset(i)) & 0xff & ~DELTA;
+    }
+
+    /** Returns true iff the Ith object is stored as a delta. */
+    boolean isDelta(int i) {
+        return (pack.get(offset(i)) & DELTA) != 0;
+    }
+
+    /** Returns the payload of the Ith object as a read-only view into
+     *  the mapped pack, or, for an object stored as a delta, its
+     *  uncompressed contents rebuilt from the delta. */
+    ByteBuffer payload(int i) {
+        if (isDelta(i)) {
+            return ByteBuffer.wrap(resolve(i)).asReadOnlyBuffer();
+        }
+        return stored(i);
+    }
+
+    /** Returns the bytes stored for the Ith object. */
+    private ByteBuffer stored(int i) {
+        int off = offset(i);
+        int len = pack.getInt(off + 1);
+        return pack.slice(off + ENTRY_HEADER, len).asReadOnlyBuffer();
+    }
+
+    /** Returns the uncompressed contents of the Ith object, rebuilding
+     *  it from its chain of deltas if needed. */
+    private byte[] resolve(int i) {
+        String sha = name(i);
+        byte[] result = cached(sha);
+        if (result != null) {
+            return result;
+        }
+        ByteBuffer stored = stored(i);
+        if (!isDelta(i)) {
+            result = inflate(stored);
+        } else {
+            byte[] base = new byte[SHA_BYTES];
+            stored.get(base);
+            int j = find(toHex(base));
+            if (j < 0) {
+                throw error("Corrupt pack %s: missing delta base.", packFile.getName());
+            }
+            result = Delta.apply(resolve(j), inflate(stored));
+        }
+        cache(sha, result);
+        return result;
+    }
+
+    /** Returns the uncompressed contents of the stored object in BUF. */
+    static byte[] inflate(ByteBuffer buf) {
+        try (InputStream in = openObject(new Blob.ByteBufferInputStream(buf))) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the rebuilt object SHA if it is in BASES, or null. */
+    private static synchronized byte[] cached(String sha) {
+        return BASES.get(sha);
+    }
+
+    /** Adds the rebuilt object SHA with contents BYTES to BASES, dropping
+     *  the least recently used objects to stay within BASE_CACHE_SIZE. */
+    private static synchronized void cache(String sha, byte[] bytes) {
+        if (bytes.length > BASE_CACHE_SIZE || BASES.containsKey(sha)) {
+            return;
+        }
+        BASES.put(sha, bytes);
+        basesSize += bytes.length;
+        Iterator<Map.Entry<String, byte[]>> it = BASES.entrySet().iterator();
+        while (basesSize > BASE_CACHE_SIZE) {
+            Map.Entry<String, byte[]> eldest = it.next();
+            basesSize -= eldest.getValue().length;
+            it.remove();
+        }
+    }
+
+    /** Returns the index of the object named SHA, or -1 if it is
+     *  not in this pack. */
+    int find(String sha) {
+        if (sha.length() != UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = fromHex(sha);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : fanout(first - 1);
+        int hi = fanout(first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the names of all objects whose SHA-1 starts with PREFIX,
+     *  which must be at least two hex digits long. */
+    List<String> findPrefix(String prefix) {
+        List<String> result = new ArrayList<>();
+        int first = Integer.parseInt(prefix.substring(0, 2), 16);
+        int lo = first == 0 ? 0 : fanout(first - 1);
+        int hi = fanout(first);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (name(mid).compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < fanout(first); i += 1) {
+            String name = name(i);
+            if (!name.startsWith(prefix)) {
+                break;
+            }
+            result.add(name);
+        }
+        return result;
+    }
+
+    /** Returns the number of objects whose first SHA-1 byte is at
+     *  most B. */
+    private int fanout(int b) {
+        return idx.getInt(8 + b * 4);
+    }
+
+    /** Returns the offset in the pack of the Ith object. */
+    private int offset(int i) {
+        return (int) idx.getLong(IDX_HEADER + size * SHA_BYTES + i * 8);
+    }
+
+    /** Compares the SHA-1 of the Ith object with KEY. */
+    private int compare(int i, byte[] key) {
+        int base = IDX_HEADER + i * SHA_BYTES;
+        for (int k = 0; k < SHA_BYTES; k += 1) {
+            int c = Integer.compare(idx.get(base + k) & 0xff, key[k] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Maps FILE read-only into memory. */
+    private static MappedByteBuffer map(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            Trace.opened();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes new packs into a directory one object at a time.  Objects
+     *  are appended to a temporary file as they arrive, and a pack is
+     *  finished, and the next one started, before an object would take it
+     *  past MAX_PACK; the index of the last pack is only built, and both
+     *  its files renamed into place, by finish(). */
+    static class Writer {
+        /** Directory the packs are written to. */
+        private final File dir;
+        /** Temporary file holding the current pack as it is written. */
+        private File tmp;
+        /** Stream over TMP. */
+        private DataOutputStream out;
+        /** Names of the objects of the current pack, in order. */
+        private final List<String> names = new ArrayList<>();
+        /** The same names, for lookups. */
+        private final HashSet<String> present = new HashSet<>();
+        /** Offsets of the objects of the current pack, in order. */
+        private final List<Long> offsets = new ArrayList<>();
+        /** Current length of TMP. */
+        private long length;
+        /** Index files of the packs finished so far. */
+        private final List<File> finished = new ArrayList<>();
+
+        /** Starts a new pack in DIR. */
+        Writer(File dir) {
+            this.dir = dir;
+            dir.mkdirs();
+            start();
+        }
+
+        /** Starts the next pack. */
+        private void start() {
+            names.clear();
+            present.clear();
+            offsets.clear();
+            try {
+                tmp = File.createTempFile("pack-", ".tmp", dir);
+                out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(tmp), 1 << 16));
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(2);
+                out.writeInt(0);
+                length = PACK_HEADER;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Appends the object SHA of type TYPE with contents PAYLOAD. */
+        void add(int type, String sha, byte[] payload) {
+            add(type, sha, ByteBuffer.wrap(payload));
+        }
+
+        /** Makes room in the current pack for the object SHA, whose
+         *  payload is LEN bytes long, finishing it and starting the next
+         *  one if needed, and records that SHA is written there next. */
+        private void reserve(String sha, long len) {
+            if (!fits(len)) {
+                throw error("Object %s is too large to pack.", sha);
+            }
+            if (length + ENTRY_HEADER + len > MAX_PACK && !names.isEmpty()) {
+                finishPack();
+                start();
+            }
+            names.add(sha);
+            present.add(sha);
+            offsets.add(length);
+        }
+
+        /** Appends the object SHA of type TYPE with contents PAYLOAD. */
+        void add(int type, String sha, ByteBuffer payload) {
+            try {
+                int len = payload.remaining();
+                reserve(sha, len);
+                out.writeByte(type);
+                out.writeInt(len);
+                if (payload.hasArray()) {
+                    out.write(payload.array(),
+                            payload.arrayOffset() + payload.position(), len);
+                } else {
+                    byte[] buf = new byte[len];
+                    payload.duplicate().get(buf);
+                    out.write(buf);
+                }
+                length += ENTRY_HEADER + len;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Appends the blob SHA as a delta against the blob BASE and
+         *  returns true if BASE is in the current pack and the delta fits
+         *  there too; otherwise returns false, adding nothing, since a
+         *  delta is only read against a base in its own pack.  COMPRESSED
+         *  is the delta compressed with Utils.compress. */
+        boolean addDelta(String sha, String base, byte[] compressed) {
+            int len = SHA_BYTES + compressed.length;
+            if (!present.contains(base) || length + ENTRY_HEADER + len > MAX_PACK) {
+                return false;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(len);
+            payload.put(fromHex(base)).put(compressed).flip();
+            add(ObjectStore.BLOB | DELTA, sha, payload);
+            return true;
+        }
+
+        /** Appends the object SHA of type TYPE, streaming its contents
+         *  from the file SRC. */
+        void add(int type, String sha, File src) {
+            try (InputStream in = new FileInputStream(src)) {
+                long len = src.length();
+                reserve(sha, len);
+                out.writeByte(type);
+                out.writeInt((int) len);
+                byte[] buf = new byte[1 << 16];
+                long copied = 0;
+                for (int n = in.read(buf); n >= 0 && copied < len; n = in.read(buf)) {
+                    n = (int) Math.min(n, len - copied);
+                    out.write(buf, 0, n);
+                    copied += n;
+                }
+                if (copied != len) {
+                    throw error("Object %s changed while packing.", sha);
+                }
+                length += ENTRY_HEADER + len;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Finishes the current pack and returns the index files of all
+         *  the packs written. */
+        List<File> finish() {
+            finishPack();
+            return finished;
+        }
+
+        /** Writes the index of the current pack and moves both its files
+         *  into place. */
+        private void finishPack() {
+            try {
+                out.close();
+                try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+                    raf.seek(8);
+                    raf.writeInt(names.size());
+                }
+                Integer[] order = new Integer[names.size()];
+                for (int i = 0; i < order.length; i += 1) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, (a, b) -> names.get(a).compareTo(names.get(b)));
+                List<Object> sorted = new ArrayList<>();
+                for (Integer i : order) {
+                    sorted.add(names.get(i));
+                }
+                String packName = "pack-" + sha1(sorted);
+                File idxTmp = File.createTempFile("idx-", ".tmp", dir);
+                try (DataOutputStream idxOut = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(idxTmp), 1 << 16))) {
+                    idxOut.writeInt(IDX_MAGIC);
+                    idxOut.writeInt(1);
+                    int[] counts = new int[256];
+                    for (String name : names) {
+                        counts[Integer.parseInt(name.substring(0, 2), 16)] += 1;
+                    }
+                    int total = 0;
+                    for (int b = 0; b < 256; b += 1) {
+                        total += counts[b];
+                        idxOut.writeInt(total);
+                    }
+                    for (Integer i : order) {
+                        idxOut.write(fromHex(names.get(i)));
+                    }
+                    for (Integer i : order) {
+                        idxOut.writeLong(offsets.get(i));
+                    }
+                }
+                File packFile = join(dir, packName + ".pack");
+                File idxFile = join(dir, packName + ".idx");
+                Trace.opened();
+                Trace.opened();
+                Trace.wrote(tmp.length() + idxTmp.length());
+                moveAtomic(tmp, packFile);
+                moveAtomic(idxTmp, idxFile);
+                finished.add(idxFile);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+}
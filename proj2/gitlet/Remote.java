@@ -0,0 +1,326 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** Another gitlet repository on the local file system that push and
+ *  fetch exchange commits with.  A remote is recorded by add-remote as
+ *  the file remotes/NAME, which holds the path of its .gitlet directory.
+ *  A transfer first works out which commits the receiving repository
+ *  lacks by walking back from the head being sent through the sender's
+ *  commit graph, stopping at commits the receiver already has, so no
+ *  commit is deserialized just to negotiate.  It then walks the trees of
+ *  those commits, skipping every subtree the receiver already stores
+ *  (whose contents it must store too), and writes the missing commits,
+ *  trees and blobs, and the chunks of chunked blobs, into one new pack
+ *  in the receiver: one sequential write and one index build, however
+ *  many objects there are.  Last, the new commits are appended to the
+ *  receiver's commit graph.
+ *  @author Adam Woods
+ */
+class Remote {
+
+    /** Directory holding one file per remote. */
+    static final File REMOTES = join(Repository.GITLET_DIR, "remotes");
+
+    /** The .gitlet directory of this remote. */
+    private final File dir;
+
+    /** The remote whose .gitlet directory is DIR. */
+    private Remote(File dir) {
+        this.dir = dir;
+    }
+
+    /** Records the repository whose .gitlet directory is PATH, written
+     *  with '/' as the separator, as the remote NAME. */
+    static void add(String name, String path) {
+        File f = join(REMOTES, name);
+        if (f.exists()) {
+            System.out.println("A remote with that name already exists.");
+            return;
+        }
+        REMOTES.mkdirs();
+        writeAtomic(f, path.replace("/", File.separator));
+    }
+
+    /** Forgets the remote NAME. */
+    static void remove(String name) {
+        File f = join(REMOTES, name);
+        if (!f.isFile()) {
+            System.out.println("A remote with that name does not exist.");
+            return;
+        }
+        f.delete();
+    }
+
+    /** Returns the remote NAME, or null if there is no such remote or
+     *  its directory does not exist. */
+    static Remote open(String name) {
+        File f = join(REMOTES, name);
+        if (!f.isFile()) {
+            return null;
+        }
+        File dir = new File(readContentsAsString(f));
+        if (!dir.isAbsolute()) {
+            dir = join(Repository.CWD, dir.getPath());
+        }
+        return dir.isDirectory() ? new Remote(dir) : null;
+    }
+
+    /** Returns the head commit of branch BRANCH of this remote, or null if
+     *  it has no such branch. */
+    String branchHead(String branch) {
+        File f = branchFile(branch);
+        return f.isFile() ? readContentsAsString(f) : null;
+    }
+
+    /** Points branch BRANCH of this remote at commit SHA. */
+    void setBranch(String branch, String sha) {
+        File f = branchFile(branch);
+        f.getParentFile().mkdirs();
+        writeRef(f, sha);
+    }
+
+    /** Copies commit HEAD of this repository to this remote, with every
+     *  commit, tree and blob it needs that the remote lacks. */
+    void receive(String head) {
+        CommitGraph graph = CommitGraph.open(dir);
+        transfer(new Store(Repository.GITLET_DIR), CommitGraph.load(),
+                new Store(dir), graph, head);
+    }
+
+    /** Copies commit HEAD of this remote to this repository, with every
+     *  commit, tree and blob it needs that this repository lacks. */
+    void send(String head) {
+        transfer(new Store(dir), CommitGraph.open(dir),
+                new Store(Repository.GITLET_DIR), CommitGraph.load(), head);
+        ObjectStore.packAdded();
+        new MessageIndex(CommitGraph.load()).catchUp();
+    }
+
+    /** Returns the file of branch BRANCH of this remote. */
+    private File branchFile(String branch) {
+        return join(dir, Repository.COMMITS.getName(), "branches", branch);
+    }
+
+    /** Copies commit HEAD, and everything it needs that TO lacks, from
+     *  FROM into one new pack in TO.  FROMGRAPH is the commit graph of
+     *  FROM and TOGRAPH that of TO; either may be null if the repository
+     *  has none, in which case commits are read instead or the graph is
+     *  left for TO to rebuild. */
+    private static void transfer(Store from, CommitGraph fromGraph,
+                                 Store to, CommitGraph toGraph, String head) {
+        List<String> commits = missingCommits(from, fromGraph, to, head);
+        if (commits.isEmpty()) {
+            return;
+        }
+        Pack.Writer writer = new Pack.Writer(join(to.dir, ObjectStore.PACKS.getName()));
+        HashSet<String> sent = new HashSet<>();
+        List<Commit> decoded = new ArrayList<>();
+        for (String sha : commits) {
+            Commit c = from.commit(sha);
+            decoded.add(c);
+            String tree = c.storedTree();
+            if (tree != null) {
+                sendTree(from, to, tree, writer, sent);
+            } else {
+                for (String blob : c.getMap().values()) {
+                    sendBlob(from, to, blob, writer, sent);
+                }
+            }
+            from.copy(ObjectStore.COMMIT, sha, writer);
+        }
+        writer.finish();
+        // The objects must be on disk before any graph or ref names them
+        syncAll();
+        if (toGraph == null) {
+            return;
+        }
+        try {
+            for (int i = 0; i < commits.size(); i += 1) {
+                toGraph.append(commits.get(i), decoded.get(i));
+            }
+        } catch (GitletException excp) {
+            // A stale graph is dropped, to be rebuilt when next loaded
+            join(to.dir, CommitGraph.GRAPH.getName()).delete();
+            join(to.dir, CommitGraph.MESSAGES.getName()).delete();
+            MessageIndex.discard(to.dir);
+        }
+    }
+
+    /** Returns the commits that HEAD needs and TO lacks, every parent
+     *  before its children.  Parents are looked up in GRAPH, the commit
+     *  graph of FROM, and only read from FROM if GRAPH lacks them. */
+    private static List<String> missingCommits(Store from, CommitGraph graph,
+                                               Store to, String head) {
+        List<String> result = new ArrayList<>();
+        HashSet<String> done = new HashSet<>();
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        stack.push(head);
+        while (!stack.isEmpty()) {
+            String sha = stack.peek();
+            if (done.contains(sha) || to.contains(ObjectStore.COMMIT, sha)) {
+                done.add(sha);
+                stack.pop();
+                continue;
+            }
+            boolean ready = true;
+            for (String p : parents(from, graph, sha)) {
+                if (!done.contains(p)) {
+                    stack.push(p);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                done.add(sha);
+                result.add(sha);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the parents of commit SHA of FROM, whose graph is GRAPH. */
+    private static List<String> parents(Store from, CommitGraph graph, String sha) {
+        int i = graph == null ? -1 : graph.find(sha);
+        List<String> result = new ArrayList<>();
+        if (i >= 0) {
+            for (int k = 0; k < graph.parentCount(i); k += 1) {
+                result.add(graph.sha(graph.parent(i, k)));
+            }
+        } else {
+            List<String> ps = from.commit(sha).getParents();
+            if (ps != null) {
+                result.addAll(ps);
+            }
+        }
+        return result;
+    }
+
+    /** Adds tree SHA of FROM to WRITER, with every tree and blob under it
+     *  that TO lacks, unless TO has it or it is in SENT already. */
+    private static void sendTree(Store from, Store to, String sha,
+                                 Pack.Writer writer, HashSet<String> sent) {
+        if (!sent.add(sha) || to.contains(ObjectStore.TREE, sha)) {
+            return;
+        }
+        Tree t = Tree.parse(from.read(ObjectStore.TREE, sha));
+        for (String sub : t.trees().values()) {
+            sendTree(from, to, sub, writer, sent);
+        }
+        for (String blob : t.blobs().values()) {
+            sendBlob(from, to, blob, writer, sent);
+        }
+        from.copy(ObjectStore.TREE, sha, writer);
+    }
+
+    /** Adds blob SHA of FROM to WRITER, after the chunks TO lacks if it
+     *  is stored chunked, unless TO has it or it is in SENT already. */
+    private static void sendBlob(Store from, Store to, String sha,
+                                 Pack.Writer writer, HashSet<String> sent) {
+        if (!sent.add(sha) || to.contains(ObjectStore.BLOB, sha)) {
+            return;
+        }
+        List<String> chunks = Blob.chunks(from.open(ObjectStore.BLOB, sha));
+        if (chunks != null) {
+            for (String chunk : chunks) {
+                sendBlob(from, to, chunk, writer, sent);
+            }
+        }
+        from.copy(ObjectStore.BLOB, sha, writer);
+    }
+
+    /** The objects of one repository, packed and loose, read straight
+     *  from its .gitlet directory. */
+    private static class Store {
+        /** The .gitlet directory. */
+        private final File dir;
+        /** Its packs. */
+        private final List<Pack> packs;
+
+        /** The objects of the repository whose .gitlet directory is DIR. */
+        Store(File dir) {
+            this.dir = dir;
+            this.packs = ObjectStore.openPacks(join(dir, ObjectStore.PACKS.getName()));
+        }
+
+        /** Returns true iff the object SHA of type TYPE is stored. */
+        boolean contains(int type, String sha) {
+            return find(type, sha) != null
+                || ObjectStore.looseFile(dir, type, sha).isFile();
+        }
+
+        /** Returns the stored form of the object SHA of type TYPE. */
+        byte[] read(int type, String sha) {
+            Pack p = find(type, sha);
+            if (p != null) {
+                ByteBuffer payload = p.payload(p.find(sha));
+                byte[] result = new byte[payload.remaining()];
+                payload.get(result);
+                return result;
+            }
+            File f = ObjectStore.looseFile(dir, type, sha);
+            if (!f.isFile()) {
+                throw error("Missing object %s.", sha);
+            }
+            return readContents(f);
+        }
+
+        /** Returns a stream over the stored form of the object SHA of
+         *  type TYPE. */
+        InputStream open(int type, String sha) {
+            Pack p = find(type, sha);
+            if (p != null) {
+                return new Blob.ByteBufferInputStream(p.payload(p.find(sha)));
+            }
+            File f = ObjectStore.looseFile(dir, type, sha);
+            try {
+                return new FileInputStream(f);
+            } catch (IOException excp) {
+                throw error("Missing object %s.", sha);
+            }
+        }
+
+        /** Returns the commit SHA. */
+        Commit commit(String sha) {
+            return Commit.decode(read(ObjectStore.COMMIT, sha));
+        }
+
+        /** Appends the object SHA of type TYPE to WRITER as stored,
+         *  except that an object stored as a delta is stored whole. */
+        void copy(int type, String sha, Pack.Writer writer) {
+            Pack p = find(type, sha);
+            if (p == null) {
+                File f = ObjectStore.looseFile(dir, type, sha);
+                if (!f.isFile()) {
+                    throw error("Missing object %s.", sha);
+                }
+                writer.add(type, sha, f);
+            } else if (p.isDelta(p.find(sha))) {
+                writer.add(type, sha, compress(read(type, sha)));
+            } else {
+                writer.add(type, sha, p.payload(p.find(sha)));
+            }
+        }
+
+        /** Returns the pack holding the object SHA of type TYPE, or null. */
+        private Pack find(int type, String sha) {
+            for (Pack p : packs) {
+                int i = p.find(sha);
+                if (i >= 0 && p.type(i) == type) {
+                    return p;
+                }
+            }
+            return null;
+        }
+    }
+}
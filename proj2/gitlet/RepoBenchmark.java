@@ -0,0 +1,469 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static gitlet.BenchUtil.*;
+import static gitlet.Utils.*;
+
+/** Generates a synthetic repository and times the everyday commands on
+ *  it: init, add, commit, status, log, global-log, find, checkout and
+ *  reset, reporting latency percentiles and bytes written per command as
+ *  a table and as JSON, so that runs can be compared over time.
+ *  Usage: java gitlet.RepoBenchmark [OPTION VALUE ...] where the options,
+ *  with their defaults, are
+ *      --files 2000          files in the working directory, 100 to a
+ *                            directory
+ *      --min-size 256        smallest file, in bytes
+ *      --max-size 65536      largest file, in bytes
+ *      --distribution log    how sizes are spread between the two:
+ *                            "uniform", or "log" for many small files and
+ *                            few large ones
+ *      --commits 200         commits on master
+ *      --change 10           files rewritten by each commit
+ *      --branch-every 20     commits on master between topic branches,
+ *                            each merged back into master; 0 for none
+ *      --branch-length 3     commits on each topic branch
+ *      --runs 10             timed runs of each command
+ *      --seed 61             seed of all random choices
+ *      --property KEY=VALUE  a system property passed to every gitlet
+ *                            process, such as gitlet.fsync=group; may be
+ *                            repeated
+ *      --json FILE           where to write the results as JSON, by
+ *                            default gitlet-benchmark.json
+ *  The history is built in a child JVM calling Repository directly, with
+ *  fsync off.  Every timed command then runs in a gitlet process of its
+ *  own, as a user would run it, so latencies include JVM start-up.
+ *  Bytes written are those the process passed to write calls, as Linux
+ *  reports in /proc/self/io (null elsewhere), with its standard output
+ *  discarded; the growth of .gitlet is reported too.
+ *  @author Adam Woods
+ */
+public class RepoBenchmark {
+
+    /** Marks the line on which a timed process reports its writes. */
+    private static final String IO_PREFIX = "gitlet-benchmark-io ";
+
+    /** The settings of a run. */
+    private static class Options {
+        /** Number of files. */
+        int files = 2000;
+        /** Smallest file size. */
+        int minSize = 256;
+        /** Largest file size. */
+        int maxSize = 65536;
+        /** How file sizes are spread, "log" or "uniform". */
+        String distribution = "log";
+        /** Number of commits on master. */
+        int commits = 200;
+        /** Number of files each commit rewrites. */
+        int change = 10;
+        /** Commits on master between topic branches, or 0. */
+        int branchEvery = 20;
+        /** Commits on each topic branch. */
+        int branchLength = 3;
+        /** Timed runs of each command. */
+        int runs = 10;
+        /** Seed of the random choices. */
+        long seed = 61;
+        /** System properties, as KEY=VALUE, for each gitlet process. */
+        List<String> properties = new ArrayList<>();
+        /** File the JSON results are written to. */
+        String json = "gitlet-benchmark.json";
+
+        /** The settings in ARGS, from START on. */
+        Options(String[] args, int start) {
+            for (int i = start; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw error("Option %s has no value.", args[i]);
+                }
+                String v = args[i + 1];
+                switch (args[i]) {
+                    case "--files":
+                        files = Integer.parseInt(v);
+                        break;
+                    case "--min-size":
+                        minSize = Integer.parseInt(v);
+                        break;
+                    case "--max-size":
+                        maxSize = Integer.parseInt(v);
+                        break;
+                    case "--distribution":
+                        distribution = v;
+                        break;
+                    case "--commits":
+                        commits = Integer.parseInt(v);
+                        break;
+                    case "--change":
+                        change = Integer.parseInt(v);
+                        break;
+                    case "--branch-every":
+                        branchEvery = Integer.parseInt(v);
+                        break;
+                    case "--branch-length":
+                        branchLength = Integer.parseInt(v);
+                        break;
+                    case "--runs":
+                        runs = Integer.parseInt(v);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(v);
+                        break;
+                    case "--property":
+                        properties.add(v);
+                        break;
+                    case "--json":
+                        json = v;
+                        break;
+                    default:
+                        throw error("Unknown option %s.", args[i]);
+                }
+            }
+            if (!distribution.equals("log") && !distribution.equals("uniform")) {
+                throw error("Unknown distribution %s.", distribution);
+            }
+            if (files < 2 || minSize < 1 || maxSize < minSize || runs < 1) {
+                throw error("Options out of range.");
+            }
+        }
+    }
+
+    /** The timings and writes of one command. */
+    private static class Samples {
+        /** Wall-clock times in milliseconds. */
+        final List<Double> millis = new ArrayList<>();
+        /** Bytes written by each run, or -1 where unknown. */
+        final List<Long> written = new ArrayList<>();
+        /** Growth of .gitlet by each run, in bytes. */
+        final List<Long> growth = new ArrayList<>();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--run")) {
+            run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--generate")) {
+            generate(new Options(args, 1));
+            return;
+        }
+        Options opts = new Options(args, 0);
+        Map<String, Samples> results = new LinkedHashMap<>();
+        for (String command : new String[] {"init", "add", "commit", "status", "log",
+            "global-log", "find", "checkout", "reset"}) {
+            results.put(command, new Samples());
+        }
+
+        for (int i = 0; i < opts.runs; i += 1) {
+            File empty = Files.createTempDirectory("gitlet-repo-bench").toFile();
+            time(opts, empty, results.get("init"), "init");
+            deleteTree(empty);
+        }
+
+        File dir = Files.createTempDirectory("gitlet-repo-bench").toFile();
+        long start = System.nanoTime();
+        List<String> command = javaCommand(opts);
+        command.add(1, "-Duser.dir=" + dir.getAbsolutePath());
+        command.add(1, "-Dgitlet.fsync=never");
+        command.add("--generate");
+        command.addAll(Arrays.asList(args));
+        Process p = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        String generated = new String(p.getInputStream().readAllBytes(),
+                StandardCharsets.UTF_8).trim();
+        if (p.waitFor() != 0) {
+            throw error("generating the repository failed.");
+        }
+        double generateSeconds = (System.nanoTime() - start) / 1e9;
+        // The last line is the count; anything before it is gitlet's output
+        String[] lines = generated.split("\n");
+        long commitCount = Long.parseLong(lines[lines.length - 1].trim());
+        long workBytes = treeSize(dir) - treeSize(join(dir, ".gitlet"));
+        long gitletBytes = treeSize(join(dir, ".gitlet"));
+
+        Random random = new Random(opts.seed + 1);
+        for (int i = 0; i < opts.runs; i += 1) {
+            List<String> add = new ArrayList<>();
+            add.add("add");
+            for (int k = 0; k < opts.change; k += 1) {
+                int f = 2 * random.nextInt(opts.files / 2);
+                writeFile(dir, f, opts, random);
+                add.add(path(f));
+            }
+            time(opts, dir, results.get("add"), add.toArray(new String[0]));
+            time(opts, dir, results.get("commit"), "commit", "benchmark " + i);
+        }
+        File branches = join(dir, ".gitlet", "commits", "branches");
+        String master = readContentsAsString(join(branches, "master"));
+        String old = readContentsAsString(join(branches, "bench-old"));
+        for (int i = 0; i < opts.runs; i += 1) {
+            time(opts, dir, results.get("status"), "status");
+            time(opts, dir, results.get("log"), "log");
+            time(opts, dir, results.get("global-log"), "global-log");
+            time(opts, dir, results.get("find"), "find",
+                    "master " + (i % Math.max(opts.commits, 1)));
+            time(opts, dir, results.get("checkout"), "checkout", "bench-old");
+            time(opts, dir, results.get("checkout"), "checkout", "master");
+            time(opts, dir, results.get("reset"), "reset", old);
+            time(opts, dir, results.get("reset"), "reset", master);
+        }
+        deleteTree(dir);
+
+        header("%-12s %8s %10s %10s %10s %10s %14s",
+                "command", "runs", "p50 (ms)", "p90 (ms)", "p99 (ms)", "max (ms)", "written (B)");
+        for (Map.Entry<String, Samples> e : results.entrySet()) {
+            Samples s = e.getValue();
+            long written = mean(s.written);
+            System.out.printf("%-12s %8d %10.1f %10.1f %10.1f %10.1f %14s\n", e.getKey(),
+                    s.millis.size(), percentile(s.millis, 50), percentile(s.millis, 90),
+                    percentile(s.millis, 99), percentile(s.millis, 100),
+                    written < 0 ? "-" : Long.toString(written));
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"benchmark\": \"gitlet-repo\",\n  \"config\": {");
+        json.append("\"files\": ").append(opts.files)
+            .append(", \"min_size\": ").append(opts.minSize)
+            .append(", \"max_size\": ").append(opts.maxSize)
+            .append(", \"distribution\": ").append(quote(opts.distribution))
+            .append(", \"commits\": ").append(opts.commits)
+            .append(", \"change\": ").append(opts.change)
+            .append(", \"branch_every\": ").append(opts.branchEvery)
+            .append(", \"branch_length\": ").append(opts.branchLength)
+            .append(", \"runs\": ").append(opts.runs)
+            .append(", \"seed\": ").append(opts.seed)
+            .append(", \"properties\": [");
+        for (int i = 0; i < opts.properties.size(); i += 1) {
+            json.append(i == 0 ? "" : ", ").append(quote(opts.properties.get(i)));
+        }
+        json.append("]},\n  \"repository\": {");
+        json.append("\"commits\": ").append(commitCount)
+            .append(", \"work_bytes\": ").append(workBytes)
+            .append(", \"gitlet_bytes\": ").append(gitletBytes)
+            .append(", \"generate_seconds\": ").append(format(generateSeconds))
+            .append("},\n  \"commands\": [");
+        String sep = "\n";
+        for (Map.Entry<String, Samples> e : results.entrySet()) {
+            Samples s = e.getValue();
+            long written = mean(s.written);
+            json.append(sep).append("    {\"command\": ").append(quote(e.getKey()))
+                .append(", \"samples\": ").append(s.millis.size())
+                .append(", \"min_ms\": ").append(format(percentile(s.millis, 0)))
+                .append(", \"mean_ms\": ").append(format(s.millis.stream()
+                        .mapToDouble(Double::doubleValue).average().orElse(0)))
+                .append(", \"p50_ms\": ").append(format(percentile(s.millis, 50)))
+                .append(", \"p90_ms\": ").append(format(percentile(s.millis, 90)))
+                .append(", \"p99_ms\": ").append(format(percentile(s.millis, 99)))
+                .append(", \"max_ms\": ").append(format(percentile(s.millis, 100)))
+                .append(", \"bytes_written\": ").append(written < 0 ? "null" : written)
+                .append(", \"gitlet_growth_bytes\": ").append(mean(s.growth))
+                .append("}");
+            sep = ",\n";
+        }
+        json.append("\n  ]\n}\n");
+        writeContents(new File(opts.json), json.toString());
+        System.out.println("\nResults written to " + opts.json);
+    }
+
+    /** Builds the history OPTS describes in the working directory, then
+     *  prints the number of commits in it.  Every BRANCHEVERY commits on
+     *  master, a topic branch gets BRANCHLENGTH commits of its own and is
+     *  merged back after one more commit on master.  Master only rewrites
+     *  files with even numbers and topic branches only odd ones, so merges
+     *  never conflict.  The branch bench-old is left half way along. */
+    private static void generate(Options opts) {
+        Random random = new Random(opts.seed);
+        Repository.init();
+        for (int f = 0; f < opts.files; f += 1) {
+            writeFile(Repository.CWD, f, opts, random);
+        }
+        Repository.add(".");
+        Repository.commit("files");
+        int topics = 0;
+        for (int c = 0; c < opts.commits; c += 1) {
+            if (c == opts.commits / 2) {
+                Repository.branch("bench-old");
+            }
+            if (opts.branchEvery > 0 && c > 0 && c % opts.branchEvery == 0) {
+                String topic = "topic-" + topics;
+                topics += 1;
+                Repository.branch(topic);
+                Repository.checkoutBranch(topic);
+                for (int t = 0; t < opts.branchLength; t += 1) {
+                    change(opts, random, 1, topic + " " + t);
+                }
+                Repository.checkoutBranch("master");
+                change(opts, random, 0, "master " + c);
+                Repository.merge(topic);
+            } else {
+                change(opts, random, 0, "master " + c);
+            }
+        }
+        if (opts.commits < 2) {
+            Repository.branch("bench-old");
+        }
+        System.out.println(CommitGraph.load().size());
+    }
+
+    /** Rewrites CHANGE random files whose numbers are PARITY mod 2, adds
+     *  them and commits them with MESSAGE. */
+    private static void change(Options opts, Random random, int parity, String message) {
+        List<String> paths = new ArrayList<>();
+        for (int k = 0; k < opts.change; k += 1) {
+            int f = 2 * random.nextInt(opts.files / 2) + parity;
+            if (f < opts.files) {
+                writeFile(Repository.CWD, f, opts, random);
+                paths.add(path(f));
+            }
+        }
+        if (!paths.isEmpty()) {
+            Repository.add(paths.toArray(new String[0]));
+        }
+        Repository.commit(message);
+    }
+
+    /** Returns the path of file number F. */
+    private static String path(int f) {
+        return "d" + (f / 100) + "/f" + f + ".txt";
+    }
+
+    /** Writes file number F under DIR with new random lines of text, of
+     *  a size drawn as OPTS says. */
+    private static void writeFile(File dir, int f, Options opts, Random random) {
+        int size;
+        if (opts.distribution.equals("uniform")) {
+            size = opts.minSize + random.nextInt(opts.maxSize - opts.minSize + 1);
+        } else {
+            double lo = Math.log(opts.minSize);
+            double hi = Math.log(opts.maxSize);
+            size = (int) Math.round(Math.exp(lo + random.nextDouble() * (hi - lo)));
+        }
+        byte[] contents = new byte[size];
+        for (int i = 0; i < size; i += 1) {
+            contents[i] = random.nextInt(40) == 0 ? (byte) '\n'
+                    : (byte) ('a' + random.nextInt(26));
+        }
+        File file = join(dir, path(f));
+        file.getParentFile().mkdirs();
+        writeContents(file, contents);
+    }
+
+    /** Runs gitlet with ARGS in DIR and adds its time, its writes and the
+     *  growth of .gitlet to SAMPLES. */
+    private static void time(Options opts, File dir, Samples samples, String... args)
+            throws IOException, InterruptedException {
+        List<String> command = javaCommand(opts);
+        command.add("--run");
+        command.addAll(Arrays.asList(args));
+        long before = treeSize(join(dir, ".gitlet"));
+        long start = System.nanoTime();
+        Process p = new ProcessBuilder(command).directory(dir)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        String err = new String(p.getErrorStream().readAllBytes(), StandardCharsets.UTF_8);
+        int status = p.waitFor();
+        double millis = (System.nanoTime() - start) / 1e6;
+        long written = -1;
+        for (String line : err.split("\n")) {
+            if (line.startsWith(IO_PREFIX)) {
+                written = Long.parseLong(line.substring(IO_PREFIX.length()).trim());
+            } else if (!line.isEmpty()) {
+                System.err.println(line);
+            }
+        }
+        if (status != 0) {
+            throw error("gitlet %s failed.", args[0]);
+        }
+        samples.millis.add(millis);
+        samples.written.add(written);
+        samples.growth.add(treeSize(join(dir, ".gitlet")) - before);
+    }
+
+    /** Returns the start of a command running this class in a new JVM
+     *  with the properties of OPTS. */
+    private static List<String> javaCommand(Options opts) {
+        List<String> command = BenchUtil.javaCommand(opts.properties.toArray(new String[0]));
+        command.add("gitlet.RepoBenchmark");
+        return command;
+    }
+
+    /** Runs gitlet with ARGS, discarding its standard output, then
+     *  reports on standard error how many bytes this process wrote. */
+    private static void run(String[] args) {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Main.main(args);
+        System.err.println(IO_PREFIX + bytesWritten());
+    }
+
+    /** Returns the number of bytes this process has passed to write
+     *  calls, or -1 where the system does not say. */
+    private static long bytesWritten() {
+        Path io = Path.of("/proc/self/io");
+        try {
+            for (String line : Files.readAllLines(io)) {
+                if (line.startsWith("wchar:")) {
+                    return Long.parseLong(line.substring(6).trim());
+                }
+            }
+        } catch (IOException | NumberFormatException excp) {
+            return -1;
+        }
+        return -1;
+    }
+
+    /** Returns the total size of the files under F. */
+    private static long treeSize(File f) {
+        File[] children = f.listFiles();
+        if (children == null) {
+            return f.isFile() ? f.length() : 0;
+        }
+        long result = 0;
+        for (File c : children) {
+            result += treeSize(c);
+        }
+        return result;
+    }
+
+    /** Returns the P-th percentile of VALUES, by nearest rank. */
+    private static double percentile(List<Double> values, double p) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        double[] sorted = values.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+        int rank = (int) Math.ceil(p / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    /** Returns the mean of VALUES, or -1 if any is unknown (negative). */
+    private static long mean(List<Long> values) {
+        long sum = 0;
+        for (long v : values) {
+            if (v < 0) {
+                return -1;
+            }
+            sum += v;
+        }
+        return values.isEmpty() ? 0 : sum / values.size();
+    }
+
+    /** Returns X with three decimals, as JSON writes numbers. */
+    private static String format(double x) {
+        return String.format(Locale.ROOT, "%.3f", x);
+    }
+
+    /** Returns S as a JSON string. */
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
@@ -1,8 +1,28 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 
 import static gitlet.Utils.*;
@@ -21,25 +41,32 @@ public class Repository {
     /** The .gitlet directory. */
     public static final File GITLET_DIR = join(CWD, ".gitlet");
     /** Create initial file structure */
-    private static File COMMITS = join(GITLET_DIR, "commits");
+    static final File COMMITS = join(GITLET_DIR, "commits");
     private static File BRANCHES = join(COMMITS, "branches");
     private static File MASTER = join(BRANCHES, "master");
-    private static File BLOBS = join(GITLET_DIR, "blobs");
-    private static File STAGE = join(GITLET_DIR, "stage");
-    private static File ADD = join(STAGE, "add");
-    private static File REMOVE = join(STAGE, "rm");
+    static final File BLOBS = join(GITLET_DIR, "blobs");
+    static final File TREES = join(GITLET_DIR, "trees");
     private static File BRANCH = join(GITLET_DIR, "branch");
     /**
      * Create initial file structure
      * .gitlet
      *      blobs
      *          hashed blob files
+     *      trees
+     *          one hashed tree file per distinct directory listing
      *      commits
      *          folders named by first 6 digits of sha
      *              actual sha files
-     *      stage
-     *          add
-     *          rm
+     *      packs
+     *          packed objects and their indexes, written by gc
+     *      index
+     *          stat data and sha of working files (see StatIndex)
+     *      commit-graph, commit-messages
+     *          parents, dates and messages of every commit (see CommitGraph)
+     *      staging
+     *          files staged for addition and removal (see Stage)
+     *      remotes
+     *          the path of each remote repository (see Remote)
      */
     public static void init() {
         if (GITLET_DIR.exists()) {
@@ -50,272 +77,534 @@ public class Repository {
         makeRepositories();
 
         // Create branch file
-        try {
-            BRANCH.createNewFile();
-        } catch (IOException e) {
-            System.out.println("Error creating branch file.");
-        }
-        writeContents(BRANCH, "master");
+        writeRef(BRANCH, "master");
          // Create initial commit and serialize it for storage
         Commit initialCommit = new Commit();
-        byte[] serializedInitialCommit = serialize(initialCommit);
+        String sha = initialCommit.getSha();
 
         // Create folder with first 2 digits of commit sha as well as file that will hold full sha
-        File commitDir = join(COMMITS, sha1(serializedInitialCommit).substring(0, 2));
+        File commitDir = join(COMMITS, sha.substring(0, 2));
         commitDir.mkdir();
-        File commitFile = join(commitDir, sha1(serializedInitialCommit));
-        try {
-            commitFile.createNewFile();
-        } catch (IOException e) {
-            System.out.println("Error creating commit file.");
-        }
+        File commitFile = join(commitDir, sha);
         // Saving the commit persistently
-        writeObject(commitFile, initialCommit);
-        try {
-            MASTER.createNewFile();
-        } catch (IOException e) {
-            System.out.println("Error creating master file.");
-        }
-        writeContents(MASTER, sha1(serializedInitialCommit));
+        writeAtomic(commitFile, compress(initialCommit.encode()));
+        ObjectStore.added(ObjectStore.COMMIT, sha);
+        CommitGraph.load().append(sha, initialCommit);
+        writeRef(MASTER, sha);
     }
 
+    /** Number of threads used to hash and store files on add and to write
+     *  them out on checkout, which can be set with -Dgitlet.threads=N. */
+    static final int THREADS = Integer.getInteger("gitlet.threads",
+            Math.min(Runtime.getRuntime().availableProcessors(), 8));
+
     /**
-     * Adds given file to staging area, and creates a blob
+     * Adds given files to staging area, and creates a blob for each
      * that saves its contents if one does not already exist.
      * If file with given name already exists in the staging area, it is overwritten
-     * @param name gives the name of the file to be added to staging area.
+     * @param names gives the names of the files to be added to staging area.
+     *              A directory stands for every file under it.
      */
-    public static void add(String name) {
-        // Saves file that will be added and errors if it does not exist
-        File cwdFile = join(CWD, name);
-        if (!cwdFile.exists()) {
-            System.out.println("File does not exist.");
-            return;
+    public static void add(String... names) {
+        // Saves files that will be added and errors if one does not exist
+        TreeSet<String> paths = new TreeSet<>();
+        for (String name : names) {
+            File cwdFile = join(CWD, name);
+            String path = relativePath(cwdFile);
+            if (cwdFile.isDirectory()) {
+                paths.addAll(workingFiles(path.isEmpty() ? "" : path + "/"));
+            } else if (cwdFile.isFile()) {
+                paths.add(path);
+            } else {
+                System.out.println("File does not exist.");
+                return;
+            }
         }
 
-        // Clear file from staging area if it was staged for removal
-        File checkStaging = join(REMOVE, name);
-        if (checkStaging.exists()) {
-            checkStaging.delete();
-        }
-        /** Sha the contents of the file to be added
-         * return if it is already saved in the current head commit
+        /** Sha and store the contents of every file in parallel, then
+         * update the staging area once all of them have succeeded
          */
-        String sha = sha1(readContents(cwdFile));
-        if (alreadyCommitted(name, sha)) {
-            return;
-        }
-        // Create file in the add directory if it needs to be added to staging area
-        File addFile = join(ADD, name);
-        if (!addFile.exists()) {
-            try {
-                addFile.createNewFile();
-            } catch (IOException e) {
-                System.out.println("Cannot create file.");
+        Trace.phase("store");
+        TreeMap<String, String> shas = storeAll(paths);
+        Trace.phase("stage");
+        Commit head = getHead();
+        Map<String, String> tracked = paths.size() > 1 ? head.getMap() : null;
+        Stage stage = Stage.load();
+        for (Map.Entry<String, String> e : shas.entrySet()) {
+            String name = e.getKey();
+            String sha = e.getValue();
+            // Unstage the file if it is already saved in the current head commit
+            String committed = tracked == null ? head.getBlob(name) : tracked.get(name);
+            if (sha.equals(committed)) {
+                stage.unstage(name);
+                continue;
             }
+            /** Record the sha of contents (pointer to the blob where contents are saved),
+             * which also clears the file from removal if it was staged for it
+             */
+            stage.add(name, sha);
         }
+    }
 
-        /** Write the sha of contents (pointer to the blob where contents are saved)
-         * to the file in the add directory
-         */
-        writeContents(addFile, sha);
+    /** Stores a blob for each working file in PATHS and returns their
+     *  SHA-1s by path.  Files whose stat data match the stat index are
+     *  not read; the rest are hashed and stored on up to THREADS threads. */
+    private static TreeMap<String, String> storeAll(Collection<String> paths) {
+        StatIndex index = StatIndex.load();
+        TreeMap<String, String> result = new TreeMap<>();
+        List<String> misses = new ArrayList<>();
+        for (String path : paths) {
+            String sha = index.cachedSha(path, join(CWD, path));
+            if (sha != null && ObjectStore.contains(ObjectStore.BLOB, sha)) {
+                result.put(path, sha);
+            } else {
+                misses.add(path);
+            }
+        }
+        int n = misses.size();
+        StatIndex.Entry[] stats = new StatIndex.Entry[n];
+        String[] shas = new String[n];
+        IntConsumer store = i -> {
+            File f = join(CWD, misses.get(i));
+            stats[i] = StatIndex.stat(f);
+            shas[i] = Blob.write(f);
+        };
+        forEachParallel(n, store);
+        for (int i = 0; i < n; i += 1) {
+            index.put(misses.get(i), stats[i], shas[i]);
+            result.put(misses.get(i), shas[i]);
+        }
+        return result;
+    }
 
-        // Get blob contents and write them to file in the add directory
-        File blob = join(BLOBS, sha);
-        if (blob.exists()) {
+    /** Runs TASK on 0 .. N-1, on up to THREADS threads.  The first
+     *  exception thrown by TASK is rethrown here. */
+    private static void forEachParallel(int n, IntConsumer task) {
+        if (THREADS <= 1 || n <= 1) {
+            for (int i = 0; i < n; i += 1) {
+                task.accept(i);
+            }
             return;
         }
+        // Load the packs before the workers share them
+        ObjectStore.packs();
+        ForkJoinPool pool = new ForkJoinPool(THREADS);
         try {
-            blob.createNewFile();
-        } catch (IOException e) {
-            System.out.println("Error creating blob file.");
+            pool.submit(() -> IntStream.range(0, n).parallel().forEach(task)).get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("Interrupted.");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw new IllegalArgumentException(excp.getCause());
+        } finally {
+            pool.shutdown();
         }
-        //byte[] b = readContents(cwdFile);
-        byte[] b = serialize(readContentsAsString(cwdFile));
-        writeContents(blob, b);
+    }
+
+    /** Returns the path of FILE relative to the working directory,
+     *  separated by '/'. */
+    static String relativePath(File file) {
+        Path rel = CWD.toPath().toAbsolutePath().normalize()
+                .relativize(file.toPath().toAbsolutePath().normalize());
+        return rel.toString().replace(File.separatorChar, '/');
     }
 
     public static void commit(String message) {
+        commit(message, null);
+    }
+
+    /** Commits the staging area with MESSAGE.  MERGED, if not null, is
+     *  the commit merged into the current branch. */
+    private static void commit(String message, String merged) {
         // Stop if staging area is empty
-        if (ADD.listFiles().length == 0 && REMOVE.listFiles().length == 0) {
+        Stage stage = Stage.load();
+        if (stage.isEmpty()) {
             System.out.println("No changes added to the commit.");
             return;
         }
         // Get sha of the current head commit, and create a new commit that is a clone of it
         File head = join(BRANCHES, readContentsAsString(BRANCH));
         String headSha = readContentsAsString(head);
-        Commit c = new Commit(message, headSha);
+        Trace.phase("tree");
+        Commit c = new Commit(message, headSha, merged, stage);
 
         // Change head pointer to new commit
-        String newHead = sha1(serialize(c));
+        String newHead = c.getSha();
         File shortDir = join(COMMITS, newHead.substring(0, 2));
         if (!shortDir.exists()) {
             shortDir.mkdir();
         }
         File f = join(shortDir, newHead);
-        try {
-            f.createNewFile();
-        } catch (IOException e) {
-            System.out.println("Error creating file.");
-        }
         // Save commit persistently
-        writeObject(f, c);
-        writeContents(head, newHead);
+        Trace.phase("write");
+        writeAtomic(f, compress(c.encode()));
+        ObjectStore.added(ObjectStore.COMMIT, newHead);
+        Trace.phase("index");
+        CommitGraph graph = CommitGraph.loadWith(headSha);
+        graph.append(newHead, c);
+        new MessageIndex(graph).catchUp();
+        writeRef(head, newHead);
 
         // Clear staging area
-        for (File z : ADD.listFiles()) {
-            z.delete();
-        }
-
-        for (File z : REMOVE.listFiles()) {
-            c.getMap().remove(z.getName());
-            z.delete();
-        }
+        stage.clear();
     }
 
     public static void remove(String fileName) {
-        File f = join(ADD, fileName);
+        Stage stage = Stage.load();
         Commit c = getHead();
-        if (!f.exists() && !c.getMap().containsKey(fileName)) {
+        boolean staged = stage.additions().containsKey(fileName);
+        if (!staged && c.getBlob(fileName) == null) {
             System.out.println("No reason to remove the file.");
             return;
         }
-        if (f.exists()) {
-            f.delete();
+        if (staged) {
+            stage.unstage(fileName);
         }
-        if (c.getMap().containsKey(fileName)) {
-            File m = join(REMOVE, fileName);
-            if (m.isDirectory()) {
-                return;
-            }
-            try {
-                m.createNewFile();
-            } catch (IOException e) {
-                System.out.println("Error creating file.");
-            }
+        if (c.getBlob(fileName) != null) {
+            stage.remove(fileName);
             join(CWD, fileName).delete();
         }
     }
 
     public static void log() {
-        Commit c = getHead();
         String sha = readContentsAsString(join(BRANCHES, readContentsAsString(BRANCH)));
-        while (c.getParents() != null) {
-            if (c.getParents().size() == 1) {
-                System.out.printf("===\ncommit %1$s\nDate: %2$s\n%3$s\n\n", sha,
-                        c.getDate(), c.getMessage());
-            } else {
-                System.out.printf("===\ncommit %1$s\nMerge: %2$s %3$s\nDate: %4$s\n%5$s\n\n",
-                        sha, c.getDate(), c.getParents().get(0).substring(0, 7),
-                        c.getParents().get(1).substring(0, 7), c.getMessage());
+        CommitGraph graph = CommitGraph.loadWith(sha);
+        LogPrinter out = new LogPrinter(graph);
+        for (int i = graph.find(sha); i >= 0; i = graph.parent(i, 0)) {
+            out.print(i);
+        }
+        out.flush();
+    }
+
+    /** Prints every commit, newest last.  Stops after LIMIT commits if
+     *  LIMIT is positive, and skips commits made before SINCE (in
+     *  milliseconds).  Only the commit graph is read, and the output is
+     *  written in large blocks. */
+    public static void globalLog(int limit, long since) {
+        CommitGraph graph = CommitGraph.load();
+        LogPrinter out = new LogPrinter(graph);
+        int printed = 0;
+        for (int i = 0; i < graph.size() && (limit <= 0 || printed < limit); i += 1) {
+            if (graph.time(i) >= since) {
+                out.print(i);
+                printed += 1;
             }
-            c = getCommit(c.getParents().get(0));
-            sha = c.getSha();
-        }
-        System.out.printf("===\ncommit %1$s\nDate: %2$s\n%3$s\n\n",
-                sha, c.getDate(), c.getMessage());
-    }
-
-    public static void globalLog() {
-        for (File n : COMMITS.listFiles()) {
-            if (!n.getName().equals("branches")) {
-                for (File f : n.listFiles()) {
-                    Commit c = readObject(f, Commit.class);
-                    if (c.getParents() == null || c.getParents().size() == 1) {
-                        System.out.printf("===\ncommit %1$s\nDate: %2$s\n%3$s\n\n",
-                                c.getSha(), c.getDate(), c.getMessage());
-                    } else {
-                        System.out.printf("===\ncommit %1$s\nMerge: %2$s %3$s\n"
-                                        + "Date: %4$s\n%5$s\n\n",
-                                c.getSha(), c.getDate(), c.getParents().get(0).substring(0, 7),
-                                c.getParents().get(1).substring(0, 7), c.getMessage());
-                    }
-                }
+        }
+        out.flush();
+    }
+
+    /** Writes log entries of the commits of a CommitGraph through one
+     *  large buffer, reusing a single date formatter. */
+    private static class LogPrinter {
+        /** The graph the printed commits come from. */
+        private final CommitGraph graph;
+        /** Buffered standard output. */
+        private final PrintWriter out = new PrintWriter(
+                new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        /** Formatter for commit dates. */
+        private final SimpleDateFormat dates = Commit.dateFormat();
+
+        /** A printer for commits of GRAPH. */
+        LogPrinter(CommitGraph graph) {
+            this.graph = graph;
+        }
+
+        /** Prints the log entry of commit I. */
+        void print(int i) {
+            out.append("===\ncommit ").append(graph.sha(i)).append('\n');
+            if (graph.parentCount(i) == 2) {
+                out.append("Merge: ").append(graph.sha(graph.parent(i, 0)), 0, 7)
+                        .append(' ').append(graph.sha(graph.parent(i, 1)), 0, 7).append('\n');
             }
+            out.append("Date: ").append(dates.format(new Date(graph.time(i)))).append('\n')
+                    .append(graph.message(i)).append("\n\n");
+        }
+
+        /** Writes out anything still buffered. */
+        void flush() {
+            out.flush();
         }
     }
 
     public static void find(String message) {
-        boolean found = false;
-        for (File n : COMMITS.listFiles()) {
-            if (!n.getName().equals("branches")) {
-                for (File f : n.listFiles()) {
-                    Commit c = readObject(f, Commit.class);
-                    if (c.getMessage().equals(message)) {
-                        System.out.println(c.getSha());
-                        found = true;
-                    }
-                }
-            }
+        printFound(messageIndex().exact(message));
+    }
+
+    /** Prints the ids of the commits whose message starts with PREFIX. */
+    public static void findPrefix(String prefix) {
+        printFound(messageIndex().prefix(prefix));
+    }
+
+    /** Prints the ids of the commits whose message contains WORD. */
+    public static void findWord(String word) {
+        printFound(messageIndex().word(word));
+    }
+
+    /** Returns the message index of this repository, brought up to date. */
+    private static MessageIndex messageIndex() {
+        MessageIndex index = new MessageIndex(CommitGraph.load());
+        index.catchUp();
+        return index;
+    }
+
+    /** Prints the ids of the commits numbered FOUND in the commit graph. */
+    private static void printFound(List<Integer> found) {
+        CommitGraph graph = CommitGraph.load();
+        for (int i : found) {
+            System.out.println(graph.sha(i));
         }
-        if (!found) {
+        if (found.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
     }
 
     public static void status() {
         System.out.println("=== Branches ===");
-        for (String s : Objects.requireNonNull(plainFilenamesIn(BRANCHES))) {
-            if (readContentsAsString(BRANCH).equals(s)) {
+        String current = readContentsAsString(BRANCH);
+        for (String s : branchNames()) {
+            if (current.equals(s)) {
                 System.out.print("*");
             }
             System.out.println(s);
         }
+        TreeMap<String, String> staged = Stage.load().additions();
+        TreeSet<String> removed = Stage.load().removals();
         System.out.println("\n=== Staged Files ===");
-        for (String s : Objects.requireNonNull(plainFilenamesIn(ADD))) {
+        for (String s : staged.keySet()) {
             System.out.println(s);
         }
         System.out.println("\n=== Removed Files ===");
-        for (String s : Objects.requireNonNull(plainFilenamesIn(REMOVE))) {
+        for (String s : removed) {
             System.out.println(s);
         }
         System.out.println("\n=== Modifications Not Staged For Commit ===");
-        System.out.println("\n=== Untracked Files ===\n");
+        Trace.phase("scan");
+        TreeMap<String, String> tracked = getHead().getMap();
+        TreeSet<String> working = workingFiles();
+        Trace.phase("compare");
+        StatIndex index = StatIndex.load();
+        TreeMap<String, String> changed = new TreeMap<>();
+        for (Map.Entry<String, String> e : tracked.entrySet()) {
+            String s = e.getKey();
+            if (staged.containsKey(s) || removed.contains(s)) {
+                continue;
+            }
+            if (!working.contains(s)) {
+                changed.put(s, "deleted");
+            } else if (!index.hash(s, join(CWD, s)).equals(e.getValue())) {
+                changed.put(s, "modified");
+            }
+        }
+        for (Map.Entry<String, String> e : staged.entrySet()) {
+            String s = e.getKey();
+            if (!working.contains(s)) {
+                changed.put(s, "deleted");
+            } else if (!index.hash(s, join(CWD, s)).equals(e.getValue())) {
+                changed.put(s, "modified");
+            }
+        }
+        for (Map.Entry<String, String> e : changed.entrySet()) {
+            System.out.println(e.getKey() + " (" + e.getValue() + ")");
+        }
+        System.out.println("\n=== Untracked Files ===");
+        for (String s : working) {
+            if (!staged.containsKey(s) && (!tracked.containsKey(s) || removed.contains(s))) {
+                System.out.println(s);
+            }
+        }
+        System.out.println();
+    }
+
+    /** Prints, as a unified diff, the changes between two versions of the
+     *  tracked files, chosen by ARGS:
+     *      (nothing)         the stage (or head commit) and the working files
+     *      --cached          the head commit and the stage
+     *      COMMIT            the commit and the working files
+     *      COMMIT1 COMMIT2   the two commits. */
+    public static void diff(String... args) {
+        if (args.length > 2) {
+            System.out.println("Incorrect operands.");
+            return;
+        }
+        Stage stage = Stage.load();
+        Map<String, String> head = getHead().getMap();
+        // The files the next commit would hold: the head's, as staged
+        TreeMap<String, String> staged = new TreeMap<>(head);
+        staged.putAll(stage.additions());
+        staged.keySet().removeAll(stage.removals());
+
+        Map<String, String> old;
+        Map<String, String> now;
+        if (args.length == 0) {
+            old = staged;
+            now = null;
+        } else if (args.length == 1 && args[0].equals("--cached")) {
+            old = head;
+            now = staged;
+        } else {
+            Commit c1 = getCommit(args[0]);
+            Commit c2 = args.length == 2 ? getCommit(args[1]) : null;
+            if (c1 == null || (args.length == 2 && c2 == null)) {
+                System.out.println("No commit with that id exists.");
+                return;
+            }
+            if (c2 != null) {
+                diffTrees(c1, c2);
+                return;
+            }
+            old = c1.getMap();
+            now = null;
+        }
+
+        TreeSet<String> paths = new TreeSet<>(old.keySet());
+        paths.addAll(now == null ? staged.keySet() : now.keySet());
+        StatIndex index = StatIndex.load();
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        try {
+            for (String path : paths) {
+                String a = old.get(path);
+                String b;
+                File f = join(CWD, path);
+                if (now != null) {
+                    b = now.get(path);
+                } else {
+                    b = f.isFile() ? index.hash(path, f) : null;
+                }
+                if (Objects.equals(a, b)) {
+                    continue;
+                }
+                Diff.Source to = b == null ? Diff.EMPTY
+                        : now == null ? () -> new FileInputStream(f) : blobSource(b);
+                Diff.print(path, blobSource(a), to, a == null, b == null, out);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Prints the changes between commits C1 and C2, reading only the
+     *  trees that differ. */
+    private static void diffTrees(Commit c1, Commit c2) {
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        try {
+            for (Map.Entry<String, String> e : Tree.diff(c1.getTree(), c2.getTree()).entrySet()) {
+                String a = c1.getBlob(e.getKey());
+                String b = e.getValue();
+                Diff.print(e.getKey(), blobSource(a), blobSource(b), a == null, b == null, out);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the contents of blob SHA as a Diff.Source, or an empty
+     *  source if SHA is null. */
+    private static Diff.Source blobSource(String sha) {
+        return sha == null ? Diff.EMPTY : () -> Blob.open(sha);
+    }
+
+    /** Returns the paths of all plain files in the working directory,
+     *  relative to it and separated by '/'. */
+    private static TreeSet<String> workingFiles() {
+        return workingFiles("");
+    }
+
+    /** Returns the paths of the plain files in the directory PREFIX (empty
+     *  or ending in '/') of the working directory, and under it.  They are
+     *  taken from the Watcher's journal if there is one, and otherwise
+     *  found by walking the directory. */
+    private static TreeSet<String> workingFiles(String prefix) {
+        TreeSet<String> result = Watcher.files(prefix);
+        if (result == null) {
+            result = new TreeSet<>();
+            addWorkingFiles(prefix.isEmpty() ? CWD : join(CWD, prefix), prefix, result);
+        }
+        return result;
+    }
+
+    /** Adds the paths of the plain files under DIR to RESULT, prefixed
+     *  with PREFIX. */
+    private static void addWorkingFiles(File dir, String prefix, TreeSet<String> result) {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (prefix.isEmpty() && name.equals(".gitlet")) {
+                continue;
+            }
+            File f = join(dir, name);
+            if (f.isDirectory()) {
+                addWorkingFiles(f, prefix + name + "/", result);
+            } else if (f.isFile()) {
+                result.add(prefix + name);
+            }
+        }
+    }
+
+    /** Returns the names of all branches in sorted order, with those
+     *  fetched from a remote R named R/BRANCH. */
+    static TreeSet<String> branchNames() {
+        TreeSet<String> result = new TreeSet<>();
+        addBranchNames(BRANCHES, "", result);
+        return result;
+    }
+
+    /** Adds to RESULT the names of the branches under DIR, whose name
+     *  starts with PREFIX. */
+    private static void addBranchNames(File dir, String prefix, TreeSet<String> result) {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            File f = join(dir, name);
+            if (f.isDirectory()) {
+                addBranchNames(f, prefix + name + "/", result);
+            } else if (!name.startsWith(".")) {
+                // Names starting with '.' are refs still being written
+                result.add(prefix + name);
+            }
+        }
     }
 
     public static void checkoutFile(String fileName) {
         File cur = join(CWD, fileName);
         Commit headCommit = getHead();
-        if (!headCommit.getMap().containsKey(fileName)) {
+        String blobName = headCommit.getBlob(fileName);
+        if (blobName == null) {
             System.out.println("File does not exist in that commit.");
             return;
         }
-        String blobName = headCommit.getMap().get(fileName);
-        //byte[] blobContents = readContents(join(BLOBS, blobName));
-        String blobContents = readObject(join(BLOBS, blobName), String.class);
-        writeContents(cur, blobContents);
+        cur.getParentFile().mkdirs();
+        Blob.checkout(blobName, cur);
+        StatIndex.load().record(fileName, cur, blobName);
     }
 
     public static void checkoutCommit(String commit, String fileName) {
-        File cf = join(COMMITS, commit.substring(0, 2));
-        if (!cf.exists()) {
-            System.out.println("No commit with that ID exists.");
-            return;
-        }
-        File cwdFile = join(CWD, fileName);
-        if (!cwdFile.exists()) {
-            try {
-                cwdFile.createNewFile();
-            } catch (IOException e) {
-                throw new RuntimeException("Error creating file.");
-            }
-        }
-        if (getCommit(commit) == null) {
+        Commit c = getCommit(commit);
+        if (c == null) {
             System.out.println("No commit with that id exists.");
             return;
         }
-        Commit c = getCommit(commit);
-        if (!c.getMap().containsKey(fileName)) {
+        String blobName = c.getBlob(fileName);
+        if (blobName == null) {
             System.out.println("File does not exist in that commit.");
             return;
         }
-        String blobName = c.getMap().get(fileName);
-        String blobContents = readObject(join(BLOBS, blobName), String.class);
-        writeContents(cwdFile, blobContents);
+        File cwdFile = join(CWD, fileName);
+        cwdFile.getParentFile().mkdirs();
+        Blob.checkout(blobName, cwdFile);
+        StatIndex.load().record(fileName, cwdFile, blobName);
     }
 
     public static void checkoutBranch(String newBranch) {
-        if (!join(BRANCHES, newBranch).exists()) {
+        if (!join(BRANCHES, newBranch).isFile()) {
             System.out.println("No such branch exists.");
             return;
         }
@@ -323,41 +612,32 @@ public class Repository {
             System.out.println("No need to checkout the current branch.");
             return;
         }
-        clear();
-        writeContents(BRANCH, newBranch);
-        Commit c2 = getHead();
-        for (String s : c2.getMap().keySet()) {
-            File f = join(CWD, s);
-            if (!f.exists()) {
-                try {
-                    f.createNewFile();
-                } catch (IOException e) {
-                    System.out.println("Error creating file.");
-                }
-            }
-            String blobName = c2.getMap().get(s);
-            String blobContents = readObject(join(BLOBS, blobName), String.class);
-            writeContents(f, blobContents);
+        String target = readContentsAsString(join(BRANCHES, newBranch));
+        if (switchTo(getCommit(target))) {
+            writeRef(BRANCH, newBranch);
         }
     }
 
     public static void branch(String name) {
         File f = join(BRANCHES, name);
-        if (f.exists()) {
+        if (f.isFile()) {
             System.out.println("A branch with that name already exists.");
             return;
         }
-        try {
-            f.createNewFile();
-        } catch (IOException e) {
-            System.out.println("Error creating file.");
+        // A name with '/' lives in a directory of branches: it cannot be a
+        // branch that is also such a directory, or lie inside a branch
+        File dir = f.getParentFile();
+        dir.mkdirs();
+        if (f.exists() || !dir.isDirectory()) {
+            System.out.println("A branch with a conflicting name already exists.");
+            return;
         }
-        writeContents(f, getHead().getSha());
+        writeRef(f, getHeadSha());
     }
 
     public static void removeBranch(String name) {
         File f = join(BRANCHES, name);
-        if (!f.exists()) {
+        if (!f.isFile()) {
             System.out.println("A branch with that name does not exist.");
             return;
         }
@@ -366,51 +646,207 @@ public class Repository {
             return;
         }
         f.delete();
+        // Drop the directories a name with '/' left empty
+        File dir = f.getParentFile();
+        while (!dir.equals(BRANCHES) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
     }
-    public static void reset(String commit) {
-        if (getCommit(commit) == null) {
+
+    /** Checks out the files of COMMIT and moves the current branch to
+     *  it.  Returns true iff it succeeds. */
+    public static boolean reset(String commit) {
+        String sha = resolveCommit(commit);
+        if (sha == null) {
             System.out.println("No commit with that id exists.");
+            return false;
+        }
+        if (!switchTo(getCommit(sha))) {
+            return false;
+        }
+        writeRef(join(BRANCHES, readContentsAsString(BRANCH)), sha);
+        return true;
+    }
+
+    /** Merges the head of branch GIVEN into the current branch, using the
+     *  best common ancestor found by CommitGraph.mergeBase as the split
+     *  point. */
+    public static void merge(String given) {
+        Stage stage = Stage.load();
+        if (!stage.isEmpty()) {
+            System.out.println("You have uncommitted changes.");
             return;
         }
-        Commit c = getCommit(commit);
-        clear();
-        for (String s : c.getMap().keySet())  {
-            File f = join(CWD, s);
-            if (!f.exists()) {
-                try {
-                    f.createNewFile();
-                } catch (IOException e) {
-                    System.out.println("Error creating file.");
-                }
+        if (!join(BRANCHES, given).isFile()) {
+            System.out.println("A branch with that name does not exist.");
+            return;
+        }
+        String current = readContentsAsString(BRANCH);
+        if (given.equals(current)) {
+            System.out.println("Cannot merge a branch with itself.");
+            return;
+        }
+        String headSha = getHeadSha();
+        String givenSha = readContentsAsString(join(BRANCHES, given));
+        CommitGraph graph = CommitGraph.loadWith(headSha);
+        if (graph.find(givenSha) < 0) {
+            graph = CommitGraph.loadWith(givenSha);
+        }
+        int base = graph.mergeBase(graph.find(headSha), graph.find(givenSha));
+        String splitSha = base < 0 ? null : graph.sha(base);
+        if (givenSha.equals(splitSha)) {
+            System.out.println("Given branch is an ancestor of the current branch.");
+            return;
+        }
+        if (headSha.equals(splitSha)) {
+            if (reset(givenSha)) {
+                System.out.println("Current branch fast-forwarded.");
             }
-            String blobName = c.getMap().get(s);
-            String blobContents = readObject(join(BLOBS, blobName), String.class);
-            writeContents(f, blobContents);
+            return;
         }
-        writeContents(join(BRANCHES, readContentsAsString(BRANCH)), c.getSha());
-    }
 
-    public static void clear() {
-        for (String f : Objects.requireNonNull(CWD.list())) {
-            if (f.equals(".gitlet")) {
-                continue;
+        // Only paths the given branch changed since the split can be
+        // taken or conflict, so neither side's full file map is needed
+        Commit split = splitSha == null ? null : getCommit(splitSha);
+        Commit head = getHead();
+        TreeMap<String, String> ours = head.changesFrom(split);
+        TreeMap<String, String> theirs = getCommit(givenSha).changesFrom(split);
+        TreeMap<String, String> take = new TreeMap<>();
+        TreeMap<String, String> conflicts = new TreeMap<>();
+        for (Map.Entry<String, String> e : theirs.entrySet()) {
+            String path = e.getKey();
+            if (!ours.containsKey(path)) {
+                take.put(path, e.getValue());
+            } else if (!Objects.equals(ours.get(path), e.getValue())) {
+                conflicts.put(path, e.getValue());
             }
-            if (!trackedInBranch(f)) {
+        }
+        for (String path : workingFiles()) {
+            if ((take.containsKey(path) || conflicts.containsKey(path))
+                    && head.getBlob(path) == null) {
                 System.out.println("There is an untracked file in the way;"
-                       + " delete it, or add and commit it first.");
+                        + " delete it, or add and commit it first.");
                 return;
             }
         }
-        for (File f : Objects.requireNonNull(CWD.listFiles())) {
-            if (!f.equals(".gitlet")) {
+
+        StatIndex index = StatIndex.load();
+        for (Map.Entry<String, String> e : take.entrySet()) {
+            String path = e.getKey();
+            File f = join(CWD, path);
+            if (e.getValue() == null) {
+                stage.remove(path);
                 f.delete();
+                index.remove(path);
+                pruneEmptyDirs(f.getParentFile());
+            } else {
+                f.getParentFile().mkdirs();
+                Blob.checkout(e.getValue(), f);
+                index.record(path, f, e.getValue());
+                stage.add(path, e.getValue());
             }
         }
-        for (File f : Objects.requireNonNull(ADD.listFiles())) {
-            f.delete();
+        for (Map.Entry<String, String> e : conflicts.entrySet()) {
+            String path = e.getKey();
+            File f = join(CWD, path);
+            f.getParentFile().mkdirs();
+            writeContents(f, "<<<<<<< HEAD\n", blobContents(ours.get(path)),
+                    "=======\n", blobContents(e.getValue()), ">>>>>>>\n");
+            String sha = Blob.write(f);
+            index.record(path, f, sha);
+            stage.add(path, sha);
+        }
+        commit("Merged " + given + " into " + current + ".", givenSha);
+        if (!conflicts.isEmpty()) {
+            System.out.println("Encountered a merge conflict.");
+        }
+    }
+
+    /** Returns the contents of blob SHA, or nothing if SHA is null. */
+    private static byte[] blobContents(String sha) {
+        if (sha == null) {
+            return new byte[0];
         }
-        for (File f : Objects.requireNonNull(REMOVE.listFiles())) {
-            f.delete();
+        try (InputStream in = Blob.open(sha)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Replaces the files of the head commit in the working directory
+     *  with those of commit TARGET and clears the stage.  The paths whose
+     *  blobs differ between the two commits, as found by Tree.diff, are
+     *  deleted or written, and so are the other files of TARGET that are
+     *  missing or modified in the working directory.  Returns false, changing nothing, if there
+     *  is an untracked file in the working directory. */
+    private static boolean switchTo(Commit target) {
+        Trace.phase("untracked");
+        Commit head = getHead();
+        for (String f : workingFiles()) {
+            if (head.getBlob(f) == null) {
+                System.out.println("There is an untracked file in the way;"
+                       + " delete it, or add and commit it first.");
+                return false;
+            }
+        }
+        Trace.phase("diff");
+        TreeMap<String, String> changes = Tree.diff(head.getTree(), target.getTree());
+        StatIndex index = StatIndex.load();
+        // A file with the same blob in both commits is restored too if it
+        // was deleted or edited; the stat index keeps checking clean ones cheap
+        for (Map.Entry<String, String> e : target.getMap().entrySet()) {
+            String path = e.getKey();
+            if (!changes.containsKey(path)) {
+                File f = join(CWD, path);
+                if (!f.isFile() || !index.hash(path, f).equals(e.getValue())) {
+                    changes.put(path, e.getValue());
+                }
+            }
+        }
+        Trace.phase("delete");
+        // Delete first, so a file can replace a directory and vice versa
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            if (e.getValue() == null) {
+                File f = join(CWD, e.getKey());
+                f.delete();
+                index.remove(e.getKey());
+                pruneEmptyDirs(f.getParentFile());
+            }
+        }
+        // Make the directories first, then stream the blobs out on up to
+        // THREADS threads; the index is updated afterwards on this thread
+        Trace.phase("write");
+        List<String> paths = new ArrayList<>();
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            if (e.getValue() != null) {
+                paths.add(e.getKey());
+                join(CWD, e.getKey()).getParentFile().mkdirs();
+            }
+        }
+        StatIndex.Entry[] stats = new StatIndex.Entry[paths.size()];
+        forEachParallel(paths.size(), i -> {
+            File f = join(CWD, paths.get(i));
+            Blob.checkout(changes.get(paths.get(i)), f);
+            stats[i] = StatIndex.stat(f);
+        });
+        Trace.phase("index");
+        for (int i = 0; i < paths.size(); i += 1) {
+            index.put(paths.get(i), stats[i], changes.get(paths.get(i)));
+        }
+        Stage.load().clear();
+        return true;
+    }
+
+    /** Deletes DIR and then each of its parents, up to but not including
+     *  the working directory, for as long as they are empty. */
+    private static void pruneEmptyDirs(File dir) {
+        File cwd = CWD.getAbsoluteFile();
+        for (File d = dir.getAbsoluteFile(); d != null && !d.equals(cwd); d = d.getParentFile()) {
+            String[] left = d.list();
+            if (left == null || left.length > 0 || !d.delete()) {
+                return;
+            }
         }
     }
 
@@ -424,46 +860,125 @@ public class Repository {
         COMMITS.mkdir();
         BRANCHES.mkdir();
         BLOBS.mkdir();
-        STAGE.mkdir();
-        ADD.mkdir();
-        REMOVE.mkdir();
+        TREES.mkdir();
     }
 
     public static boolean alreadyCommitted(String name, String sha) {
-        Commit c = getHead();
-        if (c.getMap().containsKey(name) && c.getMap().get(name).equals(sha)) {
-            return true;
-        }
-        return false;
+        return sha.equals(getHead().getBlob(name));
     }
 
     public static boolean trackedInBranch(String file) {
-        return getHead().getMap().containsKey(file);
+        return getHead().getBlob(file) != null;
+    }
+
+    /** Returns the SHA-1 of the head commit of the current branch. */
+    public static String getHeadSha() {
+        return readContentsAsString(join(BRANCHES, readContentsAsString(BRANCH)));
     }
 
     public static Commit getHead() {
-        File head = join(BRANCHES, readContentsAsString(BRANCH));
-        String headSha = readContentsAsString(head);
-        Commit c = readObject(join(COMMITS, headSha.substring(0, 2), headSha), Commit.class);
-        return c;
+        return getCommit(getHeadSha());
+    }
+
+    /** Returns the full SHA-1 of the commit whose id is or starts with ID,
+     *  or null if there is none.  Throws a GitletException if more than
+     *  one commit starts with ID. */
+    public static String resolveCommit(String id) {
+        if (id.length() < UID_LENGTH) {
+            List<String> matches = ObjectStore.commitsWithPrefix(id);
+            if (matches.size() > 1) {
+                throw error("Commit id %s is ambiguous; it matches %d commits.",
+                        id, matches.size());
+            }
+            return matches.isEmpty() ? null : matches.get(0);
+        }
+        return ObjectStore.contains(ObjectStore.COMMIT, id) ? id : null;
     }
 
     public static Commit getCommit(String sha) {
-        if (sha.length() < 40) {
-            File dir = join(COMMITS, sha.substring(0, 2));
-            if (!dir.exists()) {
+        if (sha.length() < UID_LENGTH) {
+            sha = resolveCommit(sha);
+            if (sha == null) {
                 return null;
             }
-            for (File f : dir.listFiles()) {
-                if (f.getName().startsWith(sha)) {
-                    return readObject(f, Commit.class);
-                }
+        }
+        Commit cached = ObjectCache.get(sha, Commit.class);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] contents = ObjectStore.read(ObjectStore.COMMIT, sha);
+        if (contents == null) {
+            return null;
+        }
+        return ObjectCache.put(sha, Commit.decode(contents));
+    }
+
+    /** Folds all loose objects into a single pack. */
+    public static void gc() {
+        ObjectStore.gc();
+    }
+
+    /** Records the repository whose .gitlet directory is PATH as the
+     *  remote NAME. */
+    public static void addRemote(String name, String path) {
+        Remote.add(name, path);
+    }
+
+    /** Forgets the remote NAME. */
+    public static void removeRemote(String name) {
+        Remote.remove(name);
+    }
+
+    /** Copies the head of the current branch, with everything it needs,
+     *  to the remote NAME and moves its branch BRANCH there, as long as
+     *  that only moves the remote branch forward. */
+    public static void push(String name, String branch) {
+        Remote remote = Remote.open(name);
+        if (remote == null) {
+            System.out.println("Remote directory not found.");
+            return;
+        }
+        String head = getHeadSha();
+        String remoteHead = remote.branchHead(branch);
+        if (remoteHead != null) {
+            CommitGraph graph = CommitGraph.loadWith(head);
+            int r = graph.find(remoteHead);
+            if (r < 0 || graph.mergeBase(graph.find(head), r) != r) {
+                System.out.println("Please pull down remote changes before pushing.");
+                return;
             }
         }
-        if (join(COMMITS, sha.substring(0, 2), sha).exists()) {
-            return readObject(join(COMMITS, sha.substring(0, 2), sha), Commit.class);
+        remote.receive(head);
+        remote.setBranch(branch, head);
+    }
+
+    /** Copies the head of branch BRANCH of the remote NAME, with
+     *  everything it needs, into this repository as the branch
+     *  NAME/BRANCH.  Returns true iff it succeeds. */
+    public static boolean fetch(String name, String branch) {
+        Remote remote = Remote.open(name);
+        if (remote == null) {
+            System.out.println("Remote directory not found.");
+            return false;
+        }
+        String remoteHead = remote.branchHead(branch);
+        if (remoteHead == null) {
+            System.out.println("That remote does not have that branch.");
+            return false;
+        }
+        remote.send(remoteHead);
+        File ref = join(BRANCHES, name, branch);
+        ref.getParentFile().mkdirs();
+        writeRef(ref, remoteHead);
+        return true;
+    }
+
+    /** Fetches branch BRANCH of the remote NAME and merges it into the
+     *  current branch. */
+    public static void pull(String name, String branch) {
+        if (fetch(name, branch)) {
+            merge(name + "/" + branch);
         }
-        return null;
     }
 
 }
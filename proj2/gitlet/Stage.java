@@ -0,0 +1,208 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** The staging area, kept in the single file .gitlet/staging.
+ *  The file holds the paths staged for addition, sorted, each with the
+ *  SHA-1 of its blob, followed by the sorted paths staged for removal.
+ *  It is read once per command and, if anything changed, written back
+ *  once at the end by writing a temporary file and renaming it over the
+ *  old one, so a crash leaves either the old or the new stage.
+ *  Repositories that still have the old stage/add and stage/rm
+ *  directories are read from them, and the directories are removed the
+ *  first time the stage is written.
+ *  @author Adam Woods
+ */
+class Stage {
+
+    /** Magic number at the start of the staging file ("GST1"). */
+    private static final int MAGIC = 0x47535431;
+
+    /** The staging file. */
+    static final File STAGING = join(Repository.GITLET_DIR, "staging");
+    /** The directory that held the stage in older repositories. */
+    private static final File LEGACY = join(Repository.GITLET_DIR, "stage");
+
+    /** The stage of this repository, once loaded. */
+    private static Stage stage;
+
+    /** Files staged for addition, mapped to the SHA-1s of their blobs. */
+    private final TreeMap<String, String> additions = new TreeMap<>();
+    /** Files staged for removal. */
+    private final TreeSet<String> removals = new TreeSet<>();
+    /** True iff the stage differs from the staging file. */
+    private boolean dirty;
+
+    /** Returns the stage of this repository, reading it on first use. */
+    static Stage load() {
+        if (stage == null) {
+            stage = new Stage();
+            if (STAGING.isFile()) {
+                stage.read();
+            } else if (LEGACY.isDirectory()) {
+                stage.readLegacy();
+            }
+        }
+        return stage;
+    }
+
+    /** Drops the stage as loaded, so that it is read again on next use. */
+    static void forget() {
+        stage = null;
+    }
+
+    /** Writes the stage back if it was loaded and has changed. */
+    static void flush() {
+        if (stage != null && stage.dirty) {
+            stage.write();
+        }
+    }
+
+    /** Returns the files staged for addition, mapped to the SHA-1s of
+     *  their blobs. */
+    TreeMap<String, String> additions() {
+        return additions;
+    }
+
+    /** Returns the files staged for removal. */
+    TreeSet<String> removals() {
+        return removals;
+    }
+
+    /** Returns true iff nothing is staged. */
+    boolean isEmpty() {
+        return additions.isEmpty() && removals.isEmpty();
+    }
+
+    /** Stages PATH for addition with the blob SHA. */
+    void add(String path, String sha) {
+        removals.remove(path);
+        if (!sha.equals(additions.put(path, sha))) {
+            dirty = true;
+        }
+    }
+
+    /** Stages PATH for removal. */
+    void remove(String path) {
+        additions.remove(path);
+        if (removals.add(path)) {
+            dirty = true;
+        }
+    }
+
+    /** Removes PATH from the stage altogether. */
+    void unstage(String path) {
+        dirty |= additions.remove(path) != null;
+        dirty |= removals.remove(path);
+    }
+
+    /** Empties the stage. */
+    void clear() {
+        dirty |= !isEmpty();
+        additions.clear();
+        removals.clear();
+    }
+
+    /** Reads the staging file. */
+    private void read() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(STAGING)))) {
+            Trace.opened();
+            Trace.read(STAGING.length());
+            if (in.readInt() != MAGIC) {
+                throw error("Corrupt staging file.");
+            }
+            in.readInt();
+            byte[] sha = new byte[Pack.SHA_BYTES];
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String path = in.readUTF();
+                in.readFully(sha);
+                additions.put(path, toHex(sha));
+            }
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                removals.add(in.readUTF());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Reads the stage from the stage/add and stage/rm directories of an
+     *  older repository. */
+    private void readLegacy() {
+        readLegacy(join(LEGACY, "add"), "", true);
+        readLegacy(join(LEGACY, "rm"), "", false);
+        dirty = true;
+    }
+
+    /** Adds the files under DIR, prefixed with PREFIX, to the additions
+     *  if ADDITIONS and to the removals otherwise. */
+    private void readLegacy(File dir, String prefix, boolean additions) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            String path = prefix + f.getName();
+            if (f.isDirectory()) {
+                readLegacy(f, path + "/", additions);
+            } else if (additions) {
+                this.additions.put(path, readContentsAsString(f));
+            } else {
+                removals.add(path);
+            }
+        }
+    }
+
+    /** Writes the stage to a temporary file and renames it into place. */
+    private void write() {
+        File tmp = join(Repository.GITLET_DIR, "staging.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(1);
+            out.writeInt(additions.size());
+            for (Map.Entry<String, String> e : additions.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.write(fromHex(e.getValue()));
+            }
+            out.writeInt(removals.size());
+            for (String path : removals) {
+                out.writeUTF(path);
+            }
+            Trace.opened();
+            Trace.wrote(out.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        moveAtomic(tmp, STAGING);
+        if (LEGACY.isDirectory()) {
+            syncAll();
+            deleteLegacy(LEGACY);
+        }
+        dirty = false;
+    }
+
+    /** Deletes F and everything under it. */
+    private static void deleteLegacy(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                deleteLegacy(c);
+            }
+        }
+        f.delete();
+    }
+}
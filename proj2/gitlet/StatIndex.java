@@ -0,0 +1,278 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** A cache of the SHA-1s of working files, keyed by their stat data.
+ *  The file .gitlet/index records, for each path gitlet has hashed or
+ *  written, its size, modification time, inode number and the SHA-1 of
+ *  its contents at that time.  While a file's stat data still match its
+ *  entry, its SHA-1 is taken from the index instead of reading the file.
+ *  As in git, an entry whose modification time is not older than the
+ *  index itself is "racy" (the file may have changed again within the
+ *  same clock tick) and is always rehashed.
+ *  While a Watcher keeps a journal of the working directory, an entry
+ *  made or checked during a command is trusted without statting the file
+ *  for as long as the journal has no event for its path.
+ *  @author Adam Woods
+ */
+class StatIndex {
+
+    /** Magic number at the start of the index ("GIX1"). */
+    private static final int MAGIC = 0x47495831;
+
+    /** The index file. */
+    static final File INDEX = join(Repository.GITLET_DIR, "index");
+
+    /** The index of this repository, once loaded. */
+    private static StatIndex index;
+
+    /** Entries by path. */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+    /** For paths whose entry was made or checked while a Watcher kept a
+     *  journal, the number of the last event before that. */
+    private final HashMap<String, Long> watched = new HashMap<>();
+    /** Modification time, in nanoseconds, of the index file as last
+     *  written, by the file system's clock. */
+    private long written;
+    /** True iff the entries differ from the index file. */
+    private boolean dirty;
+
+    /** The stat data and SHA-1 recorded for one path. */
+    static class Entry {
+        /** Size in bytes. */
+        final long size;
+        /** Modification time in nanoseconds. */
+        final long mtime;
+        /** Inode number, or 0 where the file system has none. */
+        final long inode;
+        /** SHA-1 of the contents, or null if only the stat data are known. */
+        final String sha;
+
+        /** An entry with the given SIZE, MTIME, INODE and SHA. */
+        Entry(long size, long mtime, long inode, String sha) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.sha = sha;
+        }
+
+        /** Returns true iff this entry has the same stat data as OTHER. */
+        boolean sameStat(Entry other) {
+            return size == other.size && mtime == other.mtime && inode == other.inode;
+        }
+    }
+
+    /** Returns the index of this repository, reading it on first use. */
+    static StatIndex load() {
+        if (index == null) {
+            index = new StatIndex();
+            if (INDEX.isFile()) {
+                index.read();
+            }
+        }
+        return index;
+    }
+
+    /** Drops the index as loaded, so that it is read again on next use. */
+    static void forget() {
+        index = null;
+    }
+
+    /** Writes the index back if it was loaded and has changed. */
+    static void flush() {
+        if (index != null && index.dirty) {
+            index.write();
+        }
+    }
+
+    /** Returns the stat data of FILE, with no SHA-1, or null if FILE is
+     *  not a plain file. */
+    static Entry stat(File file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) {
+                return null;
+            }
+            long inode = 0;
+            try {
+                Object ino = Files.getAttribute(file.toPath(), "unix:ino");
+                inode = ((Number) ino).longValue();
+            } catch (UnsupportedOperationException | IllegalArgumentException excp) {
+                inode = 0;
+            }
+            return new Entry(attrs.size(), nanos(attrs.lastModifiedTime()), inode, null);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Returns the SHA-1 recorded for PATH if FILE still has the stat
+     *  data recorded with it, and null otherwise. */
+    String cachedSha(String path, File file) {
+        Entry e = entries.get(path);
+        if (e == null || e.sha == null) {
+            return null;
+        }
+        Long seen = watched.get(path);
+        if (seen != null && Watcher.unchangedSince(path, seen)) {
+            return e.sha;
+        }
+        if (e.mtime >= written) {
+            return null;
+        }
+        Entry now = stat(file);
+        if (now == null || !e.sameStat(now)) {
+            return null;
+        }
+        watch(path);
+        return e.sha;
+    }
+
+    /** Returns the SHA-1 of the working file FILE at PATH, rehashing it
+     *  only if its stat data have changed. */
+    String hash(String path, File file) {
+        String sha = cachedSha(path, file);
+        if (sha != null) {
+            return sha;
+        }
+        Entry before = stat(file);
+        sha = Blob.hash(file);
+        put(path, before, sha);
+        return sha;
+    }
+
+    /** Records that PATH had the stat data STAT when its contents had
+     *  SHA-1 SHA. */
+    void put(String path, Entry stat, String sha) {
+        if (stat == null) {
+            remove(path);
+            return;
+        }
+        entries.put(path, new Entry(stat.size, stat.mtime, stat.inode, sha));
+        watch(path);
+        dirty = true;
+    }
+
+    /** Records that the entry of PATH is known to be current as of the
+     *  last event before this command, if there is a journal. */
+    private void watch(String path) {
+        long since = Watcher.since();
+        if (since >= 0) {
+            watched.put(path, since);
+        } else {
+            watched.remove(path);
+        }
+    }
+
+    /** Records that the working file FILE at PATH now holds the blob
+     *  SHA, as after a checkout. */
+    void record(String path, File file, String sha) {
+        put(path, stat(file), sha);
+    }
+
+    /** Forgets PATH. */
+    void remove(String path) {
+        watched.remove(path);
+        if (entries.remove(path) != null) {
+            dirty = true;
+        }
+    }
+
+    /** Reads the index file. */
+    private void read() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(INDEX)))) {
+            Trace.opened();
+            Trace.read(INDEX.length());
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            in.readInt();
+            written = in.readLong();
+            int n = in.readInt();
+            byte[] sha = new byte[Pack.SHA_BYTES];
+            for (int i = 0; i < n; i += 1) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                long inode = in.readLong();
+                in.readFully(sha);
+                entries.put(path, new Entry(size, mtime, inode, toHex(sha)));
+            }
+        } catch (IOException excp) {
+            entries.clear();
+            written = 0;
+        }
+    }
+
+    /** Writes the index to a temporary file and renames it into place. */
+    private void write() {
+        File tmp = join(Repository.GITLET_DIR, "index.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(1);
+            // Filled in below, once the file has its modification time
+            out.writeLong(0);
+            int n = 0;
+            for (Entry e : entries.values()) {
+                n += e.sha == null ? 0 : 1;
+            }
+            out.writeInt(n);
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry v = e.getValue();
+                if (v.sha == null) {
+                    continue;
+                }
+                out.writeUTF(e.getKey());
+                out.writeLong(v.size);
+                out.writeLong(v.mtime);
+                out.writeLong(v.inode);
+                out.write(fromHex(v.sha));
+            }
+            Trace.opened();
+            Trace.wrote(out.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        // Entries are racy against the time the file system gave the index,
+        // not the clock of this process; the rename keeps that time, and
+        // patching the header can only make the file newer than it says
+        long stamp;
+        try (RandomAccessFile header = new RandomAccessFile(tmp, "rw")) {
+            stamp = nanos(Files.getLastModifiedTime(tmp.toPath()));
+            header.seek(8);
+            header.writeLong(stamp);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        moveAtomic(tmp, INDEX);
+        // A daemon keeps this index loaded, and entries older than this
+        // write are no longer racy
+        written = stamp;
+        dirty = false;
+    }
+
+    /** Returns TIME in nanoseconds. */
+    private static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+}
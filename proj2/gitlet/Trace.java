@@ -0,0 +1,194 @@
+package gitlet;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Counts the work a command does, phase by phase, when the environment
+ *  variable GITLET_TRACE is set: to 1 or true to write the trace to
+ *  standard error, or to an absolute path to append it to that file.
+ *  Main starts a trace for each command and ends it, and commands mark
+ *  where their phases begin with phase(NAME).  Utils.readContents,
+ *  writeContents, readObject and writeObject count the files they open,
+ *  the bytes they move and the objects they decode; Blob, Pack, Stage
+ *  and StatIndex, which stream or map their files themselves, count
+ *  theirs where they open them.  Object cache hits and misses come from
+ *  ObjectCache.
+ *  Each phase is written as one line of JSON when the next begins:
+ *      {"trace":"phase","command":"checkout","phase":"write","ms":41.2,
+ *       "opens":812,"bytes_read":3407872,"bytes_written":1744896,
+ *       "objects_decoded":3,"cache_hits":9,"cache_misses":3}
+ *  followed at the end by a line for the whole command, with "trace"
+ *  "command", its arguments, its outcome, and the milliseconds the JVM
+ *  ran before main was called.  Under the daemon, the daemon's
+ *  environment decides whether commands are traced.
+ *  @author Adam Woods
+ */
+class Trace {
+
+    /** The value of GITLET_TRACE, or null. */
+    private static final String TARGET = System.getenv("GITLET_TRACE");
+    /** True iff commands are traced. */
+    static final boolean ON = TARGET != null && !TARGET.isEmpty()
+        && !TARGET.equals("0") && !TARGET.equalsIgnoreCase("false");
+
+    /** Files opened. */
+    private static final AtomicLong OPENS = new AtomicLong();
+    /** Bytes read from files. */
+    private static final AtomicLong READ = new AtomicLong();
+    /** Bytes written to files. */
+    private static final AtomicLong WRITTEN = new AtomicLong();
+    /** Objects decoded. */
+    private static final AtomicLong DECODED = new AtomicLong();
+
+    /** Arguments of the command being traced. */
+    private static String[] args;
+    /** Name of the current phase. */
+    private static String phase;
+    /** Time at which the command and the current phase began, in
+     *  nanoseconds. */
+    private static long commandStart;
+    private static long phaseStart;
+    /** Counters when the command and the current phase began. */
+    private static long[] commandBase;
+    private static long[] phaseBase;
+    /** Milliseconds the JVM had run when the first command started. */
+    private static long startup = -1;
+
+    /** Records that a file was opened. */
+    static void opened() {
+        if (ON) {
+            OPENS.incrementAndGet();
+        }
+    }
+
+    /** Records that N bytes were read from files. */
+    static void read(long n) {
+        if (ON) {
+            READ.addAndGet(n);
+        }
+    }
+
+    /** Records that N bytes were written to files. */
+    static void wrote(long n) {
+        if (ON) {
+            WRITTEN.addAndGet(n);
+        }
+    }
+
+    /** Records that an object was decoded. */
+    static void decoded() {
+        if (ON) {
+            DECODED.incrementAndGet();
+        }
+    }
+
+    /** Starts tracing the command with arguments ARGS. */
+    static synchronized void start(String[] commandArgs) {
+        if (!ON) {
+            return;
+        }
+        if (startup < 0) {
+            startup = ManagementFactory.getRuntimeMXBean().getUptime();
+        }
+        args = commandArgs;
+        commandStart = System.nanoTime();
+        commandBase = counters();
+        phase = "run";
+        phaseStart = commandStart;
+        phaseBase = commandBase;
+    }
+
+    /** Ends the current phase and begins the one called NAME. */
+    static synchronized void phase(String name) {
+        if (!ON || args == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        long[] counts = counters();
+        emit("{\"trace\":\"phase\"," + fields(phase, now - phaseStart, counts, phaseBase) + "}");
+        phase = name;
+        phaseStart = now;
+        phaseBase = counts;
+    }
+
+    /** Ends the current phase and the command, whose outcome is
+     *  OUTCOME. */
+    static synchronized void finish(String outcome) {
+        if (!ON || args == null) {
+            return;
+        }
+        phase(null);
+        StringBuilder line = new StringBuilder("{\"trace\":\"command\",\"args\":[");
+        for (int i = 0; i < args.length; i += 1) {
+            line.append(i == 0 ? "" : ",").append(quote(args[i]));
+        }
+        line.append("],\"outcome\":").append(quote(outcome))
+            .append(",\"startup_ms\":").append(startup).append(',')
+            .append(fields(null, phaseStart - commandStart, counters(), commandBase))
+            .append('}');
+        emit(line.toString());
+        // Only the first command of a process paid for starting the JVM
+        startup = 0;
+        args = null;
+    }
+
+    /** Returns the current counters. */
+    private static long[] counters() {
+        return new long[] {OPENS.get(), READ.get(), WRITTEN.get(), DECODED.get(),
+            ObjectCache.hits(), ObjectCache.misses()};
+    }
+
+    /** Returns the JSON fields shared by phase and command lines, for a
+     *  span named NAME (none if null) of NANOS nanoseconds, over which the
+     *  counters went from BASE to COUNTS. */
+    private static String fields(String name, long nanos, long[] counts, long[] base) {
+        String[] names = {"opens", "bytes_read", "bytes_written", "objects_decoded",
+            "cache_hits", "cache_misses"};
+        StringBuilder result = new StringBuilder();
+        result.append("\"command\":").append(quote(args.length > 0 ? args[0] : ""));
+        if (name != null) {
+            result.append(",\"phase\":").append(quote(name));
+        }
+        result.append(",\"ms\":").append(String.format(Locale.ROOT, "%.3f", nanos / 1e6));
+        for (int i = 0; i < names.length; i += 1) {
+            result.append(",\"").append(names[i]).append("\":").append(counts[i] - base[i]);
+        }
+        return result.toString();
+    }
+
+    /** Writes LINE and a newline to where GITLET_TRACE says. */
+    private static void emit(String line) {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        if (TARGET.startsWith("/")) {
+            try (OutputStream out = new FileOutputStream(TARGET, true)) {
+                out.write(bytes);
+            } catch (IOException excp) {
+                return;
+            }
+        } else {
+            System.err.write(bytes, 0, bytes.length);
+            System.err.flush();
+        }
+    }
+
+    /** Returns S as a JSON string. */
+    private static String quote(String s) {
+        StringBuilder result = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < 0x20) {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+}
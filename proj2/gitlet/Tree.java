@@ -0,0 +1,251 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** A directory listing stored as an object, as in git.
+ *  A tree maps each name in one directory to either a blob (a file) or
+ *  another tree (a subdirectory), and is named by the SHA-1 of its
+ *  encoding.  A commit stores only the SHA-1 of its root tree, so
+ *  unchanged directories are shared between commits: a commit that
+ *  changes one file writes one new tree per directory on that file's
+ *  path and nothing else.
+ *  Encoding: "tree", the number of entries, then for each entry in name
+ *  order a kind byte ('b' or 't'), the name and the raw 20-byte SHA-1.
+ *  @author Adam Woods
+ */
+class Tree {
+
+    /** Kind byte of an entry naming a blob. */
+    private static final byte BLOB = 'b';
+    /** Kind byte of an entry naming a subtree. */
+    private static final byte TREE = 't';
+
+    /** SHA-1s of the blobs in this directory, by name. */
+    private final TreeMap<String, String> blobs = new TreeMap<>();
+    /** SHA-1s of the subtrees of this directory, by name. */
+    private final TreeMap<String, String> trees = new TreeMap<>();
+
+    /** Returns true iff this tree has no entries. */
+    boolean isEmpty() {
+        return blobs.isEmpty() && trees.isEmpty();
+    }
+
+    /** Returns the tree stored as SHA.  The result may be shared through
+     *  the ObjectCache and must not be modified. */
+    static Tree read(String sha) {
+        Tree cached = ObjectCache.get(sha, Tree.class);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] stored = ObjectStore.read(ObjectStore.TREE, sha);
+        if (stored == null) {
+            throw error("Missing tree %s.", sha);
+        }
+        return ObjectCache.put(sha, parse(stored));
+    }
+
+    /** Returns the tree whose stored form is STORED. */
+    static Tree parse(byte[] stored) {
+        Trace.decoded();
+        Tree result = new Tree();
+        try (DataInputStream in = new DataInputStream(
+                openObject(new ByteArrayInputStream(stored)))) {
+            byte[] magic = new byte[4];
+            in.readFully(magic);
+            int n = in.readInt();
+            byte[] id = new byte[Pack.SHA_BYTES];
+            for (int i = 0; i < n; i += 1) {
+                byte kind = in.readByte();
+                String name = in.readUTF();
+                in.readFully(id);
+                (kind == TREE ? result.trees : result.blobs).put(name, toHex(id));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Returns the SHA-1s of the blobs in this directory, by name. */
+    Map<String, String> blobs() {
+        return Collections.unmodifiableMap(blobs);
+    }
+
+    /** Returns the SHA-1s of the subtrees of this directory, by name. */
+    Map<String, String> trees() {
+        return Collections.unmodifiableMap(trees);
+    }
+
+    /** Stores this tree, unless it is already stored, and returns its
+     *  SHA-1. */
+    String write() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeBytes("tree");
+            TreeMap<String, Byte> names = new TreeMap<>();
+            for (String name : blobs.keySet()) {
+                names.put(name, BLOB);
+            }
+            for (String name : trees.keySet()) {
+                names.put(name, TREE);
+            }
+            out.writeInt(names.size());
+            for (Map.Entry<String, Byte> e : names.entrySet()) {
+                String name = e.getKey();
+                out.writeByte(e.getValue());
+                out.writeUTF(name);
+                out.write(fromHex(e.getValue() == TREE ? trees.get(name) : blobs.get(name)));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] body = bytes.toByteArray();
+        String sha = sha1(body);
+        if (!ObjectStore.contains(ObjectStore.TREE, sha)) {
+            File f = ObjectStore.looseFile(ObjectStore.TREE, sha);
+            f.getParentFile().mkdirs();
+            writeAtomic(f, compress(body));
+        }
+        return sha;
+    }
+
+    /** Returns the SHA-1 of the stored empty tree. */
+    static String empty() {
+        return new Tree().write();
+    }
+
+    /** Returns the SHA-1 of the blob at PATH under the tree ROOT, or null
+     *  if there is none.  Only the trees along PATH are read. */
+    static String lookup(String root, String path) {
+        String sha = root;
+        String[] parts = path.split("/");
+        for (int i = 0; i < parts.length - 1; i += 1) {
+            sha = read(sha).trees.get(parts[i]);
+            if (sha == null) {
+                return null;
+            }
+        }
+        return read(sha).blobs.get(parts[parts.length - 1]);
+    }
+
+    /** Returns every file under the tree ROOT, as a map from its path
+     *  to the SHA-1 of its blob. */
+    static TreeMap<String, String> flatten(String root) {
+        TreeMap<String, String> result = new TreeMap<>();
+        flatten(root, "", result);
+        return result;
+    }
+
+    /** Adds the files under tree SHA to RESULT, prefixing their paths
+     *  with PREFIX. */
+    private static void flatten(String sha, String prefix, TreeMap<String, String> result) {
+        Tree t = read(sha);
+        for (Map.Entry<String, String> e : t.blobs.entrySet()) {
+            result.put(prefix + e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, String> e : t.trees.entrySet()) {
+            flatten(e.getValue(), prefix + e.getKey() + "/", result);
+        }
+    }
+
+    /** Returns the files that differ between the trees A and B (either
+     *  null for an empty tree), as a map from each path to its blob SHA-1
+     *  in B, or to null if B does not have it.  Subtrees that A and B
+     *  share are skipped without being read. */
+    static TreeMap<String, String> diff(String a, String b) {
+        TreeMap<String, String> result = new TreeMap<>();
+        diff(a, b, "", result);
+        return result;
+    }
+
+    /** Adds the differences between trees A and B to RESULT, prefixing
+     *  their paths with PREFIX. */
+    private static void diff(String a, String b, String prefix, TreeMap<String, String> result) {
+        if (a != null && a.equals(b)) {
+            return;
+        }
+        Tree ta = a == null ? new Tree() : read(a);
+        Tree tb = b == null ? new Tree() : read(b);
+        TreeSet<String> names = new TreeSet<>(ta.blobs.keySet());
+        names.addAll(tb.blobs.keySet());
+        for (String name : names) {
+            String sha = tb.blobs.get(name);
+            if (!Objects.equals(ta.blobs.get(name), sha)) {
+                result.put(prefix + name, sha);
+            }
+        }
+        names = new TreeSet<>(ta.trees.keySet());
+        names.addAll(tb.trees.keySet());
+        for (String name : names) {
+            diff(ta.trees.get(name), tb.trees.get(name), prefix + name + "/", result);
+        }
+    }
+
+    /** Stores the trees for FILES, a map from path to blob SHA-1, and
+     *  returns the SHA-1 of the root. */
+    static String build(Map<String, String> files) {
+        return update(null, files);
+    }
+
+    /** Returns the SHA-1 of a new root tree equal to ROOT (null for an
+     *  empty tree) with CHANGES applied.  CHANGES maps paths to their new
+     *  blob SHA-1, or to null for paths to remove.  Only the trees on the
+     *  changed paths are read and written; all others are shared. */
+    static String update(String root, Map<String, String> changes) {
+        String result = updateDir(root, new TreeMap<>(changes));
+        return result == null ? empty() : result;
+    }
+
+    /** Returns the SHA-1 of tree SHA (null for an empty tree) with
+     *  CHANGES applied, or null if the result is empty. */
+    private static String updateDir(String sha, SortedMap<String, String> changes) {
+        Tree t = new Tree();
+        if (sha != null) {
+            Tree old = read(sha);
+            t.blobs.putAll(old.blobs);
+            t.trees.putAll(old.trees);
+        }
+        TreeMap<String, TreeMap<String, String>> subdirs = new TreeMap<>();
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            String path = e.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                subdirs.computeIfAbsent(path.substring(0, slash), k -> new TreeMap<>())
+                        .put(path.substring(slash + 1), e.getValue());
+            } else if (e.getValue() == null) {
+                t.blobs.remove(path);
+            } else {
+                // A file replaces a directory of the same name
+                t.blobs.put(path, e.getValue());
+                t.trees.remove(path);
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> e : subdirs.entrySet()) {
+            String child = updateDir(t.trees.get(e.getKey()), e.getValue());
+            if (child == null) {
+                t.trees.remove(e.getKey());
+            } else {
+                // and a directory replaces a file
+                t.trees.put(e.getKey(), child);
+                t.blobs.remove(e.getKey());
+            }
+        }
+        if (t.isEmpty()) {
+            return null;
+        }
+        return t.write();
+    }
+}
@@ -1,22 +1,36 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 
 /** Assorted utilities.
@@ -47,11 +61,7 @@ class Utils {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
+            return toHex(md.digest());
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
@@ -63,6 +73,31 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the lower-case hexadecimal numeral for the bytes in BYTES. */
+    static String toHex(byte[] bytes) {
+        char[] result = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i += 1) {
+            result[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+            result[2 * i + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+        }
+        return new String(result);
+    }
+
+    /** Returns the bytes denoted by the hexadecimal numeral HEX, which
+     *  must have an even number of digits. */
+    static byte[] fromHex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new NumberFormatException("not a hexadecimal numeral: " + hex);
+            }
+            result[i] = (byte) (hi << 4 | lo);
+        }
+        return result;
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -98,7 +133,10 @@ class Utils {
             throw new IllegalArgumentException("must be a normal file");
         }
         try {
-            return Files.readAllBytes(file.toPath());
+            byte[] result = Files.readAllBytes(file.toPath());
+            Trace.opened();
+            Trace.read(result.length);
+            return result;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -123,12 +161,12 @@ class Utils {
             }
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+            Trace.opened();
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] bytes = obj instanceof byte[] ? (byte[]) obj
+                    : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(bytes);
+                Trace.wrote(bytes.length);
             }
             str.close();
         } catch (IOException | ClassCastException excp) {
@@ -136,15 +174,139 @@ class Utils {
         }
     }
 
+    /* DURABLE WRITES */
+
+    /** How writes to the repository are made durable, set with
+     *  -Dgitlet.fsync: "always" (the default) syncs each object and ref
+     *  before renaming it into place, and its directory after; "group"
+     *  leaves new objects under their temporary names until the next ref
+     *  update or the end of the command, then syncs them all, renames them
+     *  and syncs each directory once; "never" skips syncing. */
+    static final String FSYNC = System.getProperty("gitlet.fsync", "always");
+
+    /** In group mode, the temporary files waiting to be renamed, mapped
+     *  to their final names. */
+    private static final Map<File, File> PENDING = new LinkedHashMap<>();
+
+    /** Writes CONTENTS, as for writeContents, to a temporary file next to
+     *  FILE and renames it over FILE with moveAtomic, so FILE always holds
+     *  either its old or its new contents. */
+    static void writeAtomic(File file, Object... contents) {
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("." + file.getName() + "-", ".tmp",
+                    file.getAbsoluteFile().getParentFile());
+            writeContents(tmp, contents);
+            moveAtomic(tmp, file);
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Points the ref FILE at SHA (or at the branch named SHA).  Pending
+     *  objects are synced and renamed first, so a ref never names an
+     *  object that a crash could lose. */
+    static void writeRef(File file, String sha) {
+        syncAll();
+        writeAtomic(file, sha);
+        syncAll();
+    }
+
+    /** Renames the complete file TMP over DEST in one atomic step, syncing
+     *  as FSYNC says.  In group mode the rename waits for syncAll. */
+    static void moveAtomic(File tmp, File dest) {
+        if (FSYNC.equals("group")) {
+            synchronized (PENDING) {
+                PENDING.put(tmp, dest);
+            }
+            return;
+        }
+        try {
+            boolean always = FSYNC.equals("always");
+            if (always) {
+                sync(tmp.toPath());
+            }
+            Files.move(tmp.toPath(), dest.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            if (always) {
+                syncDir(dest.getAbsoluteFile().getParentFile().toPath());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** In group mode, syncs every pending temporary file, renames each
+     *  into place and then syncs each directory they went to once. */
+    static void syncAll() {
+        Map<File, File> pending;
+        synchronized (PENDING) {
+            if (PENDING.isEmpty()) {
+                return;
+            }
+            pending = new LinkedHashMap<>(PENDING);
+            PENDING.clear();
+        }
+        try {
+            for (File tmp : pending.keySet()) {
+                sync(tmp.toPath());
+            }
+            Set<Path> dirs = new LinkedHashSet<>();
+            for (Map.Entry<File, File> e : pending.entrySet()) {
+                Files.move(e.getKey().toPath(), e.getValue().toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                dirs.add(e.getValue().getAbsoluteFile().getParentFile().toPath());
+            }
+            for (Path dir : dirs) {
+                syncDir(dir);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Forces what has been appended to a file through OUT to disk,
+     *  unless FSYNC is "never".  An append to a file in place cannot wait
+     *  for syncAll, so group mode syncs it at once as well. */
+    static void syncAppend(FileOutputStream out) throws IOException {
+        if (!FSYNC.equals("never")) {
+            out.getChannel().force(false);
+        }
+    }
+
+    /** Forces the contents of the file FILE to disk. */
+    private static void sync(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+    }
+
+    /** Forces the entries of directory DIR to disk.  Directories cannot be
+     *  opened on every platform; there this does nothing. */
+    private static void syncDir(Path dir) {
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
+     *  FILE may have been written compressed or uncompressed.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
         try {
             ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
+                new ObjectInputStream(openObject(new FileInputStream(file)));
             T result = expectedClass.cast(in.readObject());
             in.close();
+            Trace.opened();
+            Trace.read(file.length());
+            Trace.decoded();
             return result;
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
@@ -152,9 +314,68 @@ class Utils {
         }
     }
 
-    /** Write OBJ to FILE. */
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  BYTES may be compressed or uncompressed.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(openObject(new ByteArrayInputStream(bytes)));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            Trace.decoded();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write OBJ to FILE, compressed, through writeAtomic. */
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        writeAtomic(file, compress(serialize(obj)));
+    }
+
+    /* COMPRESSION */
+
+    /** Compression level used for everything gitlet stores. */
+    static final int COMPRESSION_LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+    /** Returns true iff the two bytes B0 and B1 form a zlib header. */
+    static boolean isZlibHeader(int b0, int b1) {
+        return (b0 & 0x0f) == Deflater.DEFLATED
+            && ((b0 & 0xff) << 8 | (b1 & 0xff)) % 31 == 0;
+    }
+
+    /** Returns the zlib-compressed form of BYTES. */
+    static byte[] compress(byte[] bytes) {
+        Deflater deflater = new Deflater(COMPRESSION_LEVEL);
+        try {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            DeflaterOutputStream out = new DeflaterOutputStream(result, deflater);
+            out.write(bytes);
+            out.close();
+            return result.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Returns a stream over the uncompressed contents of the stored
+     *  object read from IN, inflating it if it was written compressed. */
+    static InputStream openObject(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        buffered.mark(2);
+        int b0 = buffered.read();
+        int b1 = buffered.read();
+        buffered.reset();
+        if (b0 >= 0 && b1 >= 0 && isZlibHeader(b0, b1)) {
+            return new InflaterInputStream(buffered);
+        }
+        return buffered;
     }
 
     /* DIRECTORIES */
@@ -0,0 +1,252 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/** A journal of changes to the working directory, kept by a thread that
+ *  watches every directory of it with a WatchService while the daemon
+ *  runs with -Dgitlet.watch=true.  The journal holds the paths of all
+ *  working files and, for each path, the number of the last event seen
+ *  for it, counting up from the start of the watch.
+ *  Before each command the daemon calls sync, which creates a cookie
+ *  file in .gitlet and waits for the watcher to see it, so every change
+ *  made before the command has been recorded.  A StatIndex entry made
+ *  or checked after a sync is trusted without statting the file for as
+ *  long as no event arrives for its path, and status, add and the
+ *  untracked-file checks take the list of working files from the
+ *  journal instead of walking the working directory.
+ *  If the watcher is not running, a sync times out, or events were lost
+ *  to an overflow, there is no journal for the command and everything
+ *  is read from the file system as before; an overflow is recovered from
+ *  at the next sync by walking the working directory again.
+ *  @author Adam Woods
+ */
+class Watcher {
+
+    /** Longest a sync waits for its cookie, in milliseconds. */
+    private static final long SYNC_TIMEOUT = 1000;
+    /** Prefix of the names of cookie files in .gitlet. */
+    private static final String COOKIE = "watch-cookie-";
+
+    /** The watch service, or null if the watcher is not running. */
+    private static WatchService service;
+    /** The key of .gitlet, which is watched only for cookies. */
+    private static WatchKey gitletKey;
+    /** The path, ending in '/' or empty, of each watched directory. */
+    private static final HashMap<WatchKey, String> DIRS = new HashMap<>();
+    /** Paths of every plain file in the working directory. */
+    private static final TreeSet<String> FILES = new TreeSet<>();
+    /** Number of the last event seen for each path. */
+    private static final HashMap<String, Long> LAST = new HashMap<>();
+    /** Number of the last event. */
+    private static long seq;
+    /** Number of the event before which events may have been lost. */
+    private static long lost;
+    /** True if events were lost since the last walk. */
+    private static boolean overflowed;
+    /** Number of the last cookie created. */
+    private static long cookiesMade;
+    /** Number of the last cookie the watcher has seen. */
+    private static long cookiesSeen;
+    /** Event number at the last successful sync, or -1 if the current
+     *  command has no journal. */
+    private static long since = -1;
+
+    /** Starts watching the working directory. */
+    static synchronized void start() {
+        try {
+            service = FileSystems.getDefault().newWatchService();
+            gitletKey = Repository.GITLET_DIR.toPath().register(service, ENTRY_CREATE);
+        } catch (IOException excp) {
+            throw error("Could not watch the working directory: %s", excp.getMessage());
+        }
+        walk(Repository.CWD, "");
+        Thread thread = new Thread(Watcher::run, "gitlet-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Brings the journal up to date with every change made so far, and
+     *  makes it available to the command about to run if that works. */
+    static void sync() {
+        long cookie;
+        synchronized (Watcher.class) {
+            since = -1;
+            if (service == null) {
+                return;
+            }
+            cookie = ++cookiesMade;
+        }
+        File f = join(Repository.GITLET_DIR, COOKIE + cookie);
+        try {
+            f.createNewFile();
+        } catch (IOException excp) {
+            return;
+        } finally {
+            f.delete();
+        }
+        synchronized (Watcher.class) {
+            long deadline = System.currentTimeMillis() + SYNC_TIMEOUT;
+            while (cookiesSeen < cookie) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    return;
+                }
+                try {
+                    Watcher.class.wait(left);
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (overflowed) {
+                overflowed = false;
+                lost = ++seq;
+                FILES.clear();
+                walk(Repository.CWD, "");
+            }
+            since = seq;
+        }
+    }
+
+    /** Returns the number of the last event before the current command
+     *  started, or -1 if the command has no journal. */
+    static synchronized long since() {
+        return since;
+    }
+
+    /** Returns true iff the journal is available and no event has been
+     *  seen for PATH after event number SEEN. */
+    static synchronized boolean unchangedSince(String path, long seen) {
+        return since >= 0 && !overflowed && seen >= lost
+            && LAST.getOrDefault(path, 0L) <= seen;
+    }
+
+    /** Returns the paths of the working files whose paths start with
+     *  PREFIX, or null if the current command has no journal. */
+    static synchronized TreeSet<String> files(String prefix) {
+        if (since < 0 || overflowed) {
+            return null;
+        }
+        if (prefix.isEmpty()) {
+            return new TreeSet<>(FILES);
+        }
+        return new TreeSet<>(FILES.subSet(prefix, prefix + Character.MAX_VALUE));
+    }
+
+    /** Takes events from the watch service until it is closed. */
+    private static void run() {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                long cookie = 0;
+                // Drain every key already signalled, so that once a cookie
+                // is published, every event before it has been recorded
+                while (key != null) {
+                    cookie = Math.max(cookie, handle(key));
+                    key = service.poll();
+                }
+                if (cookie > 0) {
+                    synchronized (Watcher.class) {
+                        cookiesSeen = Math.max(cookiesSeen, cookie);
+                        Watcher.class.notifyAll();
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException excp) {
+            synchronized (Watcher.class) {
+                service = null;
+                since = -1;
+            }
+        }
+    }
+
+    /** Records the events of KEY and resets it.  Returns the number of
+     *  the last cookie among them, or 0. */
+    private static synchronized long handle(WatchKey key) {
+        long cookie = 0;
+        String prefix = key == gitletKey ? null : DIRS.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflowed = true;
+                continue;
+            }
+            String name = ((Path) event.context()).toString();
+            if (key == gitletKey) {
+                if (name.startsWith(COOKIE)) {
+                    cookie = Math.max(cookie, Long.parseLong(name.substring(COOKIE.length())));
+                }
+                continue;
+            }
+            if (prefix == null || (prefix.isEmpty() && name.equals(".gitlet"))) {
+                continue;
+            }
+            record(event.kind(), prefix + name);
+        }
+        if (!key.reset()) {
+            DIRS.remove(key);
+        }
+        return cookie;
+    }
+
+    /** Records an event of kind KIND for the working file or directory
+     *  PATH. */
+    private static void record(WatchEvent.Kind<?> kind, String path) {
+        seq += 1;
+        LAST.put(path, seq);
+        File f = join(Repository.CWD, path);
+        if (kind == ENTRY_DELETE) {
+            // A directory moved away has no events for what it held
+            FILES.remove(path);
+            String dir = path + "/";
+            for (String p : new ArrayList<>(FILES.subSet(dir, dir + Character.MAX_VALUE))) {
+                LAST.put(p, seq);
+                FILES.remove(p);
+            }
+        } else if (kind == ENTRY_CREATE && f.isDirectory()) {
+            walk(f, path + "/");
+        } else if (f.isFile()) {
+            FILES.add(path);
+        }
+    }
+
+    /** Watches DIR, whose path is PREFIX, and every directory under it,
+     *  and adds the files under it to the journal as changed. */
+    private static void walk(File dir, String prefix) {
+        try {
+            DIRS.put(dir.toPath().register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY),
+                    prefix);
+        } catch (IOException excp) {
+            // Gone already; its parent saw it go
+            return;
+        }
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (prefix.isEmpty() && name.equals(".gitlet")) {
+                continue;
+            }
+            File f = join(dir, name);
+            if (f.isDirectory()) {
+                walk(f, prefix + name + "/");
+            } else if (f.isFile()) {
+                FILES.add(prefix + name);
+                LAST.put(prefix + name, seq);
+            }
+        }
+    }
+}